@@ -19,8 +19,17 @@
 package com.wonderscan.android
 
 import android.app.Application
+import com.wonderscan.android.utils.GalleryRepository
 import com.wonderscan.android.utils.MyDatabase
+import com.wonderscan.android.utils.OcrIndexer
 
 class WonderScanApp : Application() {
     val database by lazy { MyDatabase.geDatabase(this) }
+    val ocrIndexer by lazy { OcrIndexer(database!!) }
+    val galleryRepository by lazy { GalleryRepository(this) }
+
+    override fun onCreate() {
+        super.onCreate()
+        ocrIndexer.enqueuePending()
+    }
 }
\ No newline at end of file
@@ -27,8 +27,11 @@ import android.widget.LinearLayout
 import androidx.lifecycle.lifecycleScope
 import com.wonderscan.android.R
 import com.wonderscan.android.data.BoundingRect
+import com.wonderscan.android.data.PageFormat
 import com.wonderscan.android.databinding.ActivityCropBinding
 import com.wonderscan.android.utils.DetectBox
+import com.wonderscan.android.utils.PageCodec
+import com.wonderscan.android.utils.Thumbnails
 import com.wonderscan.android.utils.Utils
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
@@ -103,15 +106,23 @@ class CropActivity : BaseActivity() {
         binding.tvConfirm.setOnClickListener {
             binding.progressFrame.visibility = VISIBLE
             lifecycleScope.launch(Dispatchers.Default) {
-                editedUri?.let { File(it).delete() }
-                croppedUri = croppedUri ?: Utils.createPhotoFile(this@CropActivity).absolutePath
+                editedUri?.let {
+                    File(it).delete()
+                    Thumbnails.delete(it)
+                }
+                croppedUri = croppedUri
+                    ?: PageCodec.createFile(this@CropActivity, PageFormat.JPEG).absolutePath
                 getPerspectiveTransform(
                     bitmap,
                     binding.cvCrop.getBoundingRect(),
                     ratio
                 ).run {
                     Utils.rotateMat(this, angle)
-                    Utils.saveMat(this, croppedUri)
+                    Utils.saveMat(
+                        this,
+                        croppedUri,
+                        quality = PageCodec.jpegQuality(this@CropActivity)
+                    )
                 }
                 bitmap.recycle()
 
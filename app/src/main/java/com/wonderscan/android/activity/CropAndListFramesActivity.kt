@@ -102,6 +102,13 @@ class CropAndListFramesActivity : BaseActivity() {
                 framesAdapter.frames = frames
                 framesAdapter.notifyDataSetChanged()
             }
+            it.processedCount.observe(this) { processed ->
+                title = if (processed < sourcePaths.size) {
+                    getString(R.string.import_progress, processed, sourcePaths.size)
+                } else {
+                    ""
+                }
+            }
         }
     }
 
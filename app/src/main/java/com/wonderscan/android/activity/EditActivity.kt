@@ -35,17 +35,23 @@ import com.wonderscan.android.data.Frame
 import com.wonderscan.android.databinding.ActivityEditBinding
 import com.wonderscan.android.utils.BrightnessAndContrastController
 import com.wonderscan.android.utils.Filter
+import com.wonderscan.android.utils.PageCodec
+import com.wonderscan.android.utils.PreviewRenderer
+import com.wonderscan.android.utils.Thumbnails
 import com.wonderscan.android.utils.Utils
 import com.wonderscan.android.viewmodel.EditActivityViewModel
 import com.wonderscan.android.viewmodel.EditActivityViewModelFactory
 import com.google.android.material.navigation.NavigationBarView
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.NonCancellable
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import org.opencv.android.Utils.matToBitmap
 import org.opencv.core.Core
 import org.opencv.core.Mat
 import org.opencv.core.Size
 import org.opencv.imgproc.Imgproc
+import java.io.File
 import java.util.*
 
 class EditActivity : BaseActivity(), View.OnClickListener, OnSeekBarChangeListener,
@@ -53,7 +59,8 @@ class EditActivity : BaseActivity(), View.OnClickListener, OnSeekBarChangeListen
     private lateinit var croppedMat: Mat
     private lateinit var editedMat: Mat
     private lateinit var frame: Frame
-    private lateinit var brightnessAndContrastController: BrightnessAndContrastController
+    private val brightnessAndContrastController = BrightnessAndContrastController(0.0, 1.0)
+    private lateinit var previewRenderer: PreviewRenderer
     private lateinit var binding: ActivityEditBinding
     private lateinit var viewModel: EditActivityViewModel
 
@@ -96,8 +103,7 @@ class EditActivity : BaseActivity(), View.OnClickListener, OnSeekBarChangeListen
     private fun filterImage(processImage: ProcessImage) {
         binding.pbEdit.visibility = View.VISIBLE
         lifecycleScope.launch(Dispatchers.Default) {
-            editedMat = processImage.process(croppedMat)
-            previewMat(editedMat)
+            replaceEditedMat(processImage.process(croppedMat))
             lifecycleScope.launch(Dispatchers.Main) { binding.pbEdit.visibility = View.GONE }
         }
     }
@@ -156,8 +162,11 @@ class EditActivity : BaseActivity(), View.OnClickListener, OnSeekBarChangeListen
         }
 
         initialiseViewModel(frameId)
+        previewRenderer = PreviewRenderer(lifecycleScope) { binding.ivEdit.setImageBitmap(it) }
 
         viewModel.frame?.observe(this) { frame ->
+            // saving writes the frame back, which must not reload the page being edited
+            if (::frame.isInitialized) return@observe
             this.frame = frame
             setupPreview()
             setupFilterButtons()
@@ -174,6 +183,14 @@ class EditActivity : BaseActivity(), View.OnClickListener, OnSeekBarChangeListen
         }
     }
 
+    override fun onDestroy() {
+        if (::previewRenderer.isInitialized) {
+            if (::editedMat.isInitialized) previewRenderer.retire(editedMat)
+            previewRenderer.release()
+        }
+        super.onDestroy()
+    }
+
     private fun initialiseViewModel(frameId: Long) {
         (application as WonderScanApp).database?.let { db ->
             viewModel = ViewModelProvider(
@@ -187,7 +204,6 @@ class EditActivity : BaseActivity(), View.OnClickListener, OnSeekBarChangeListen
     }
 
     private fun setupBrightnessAndContrast() {
-        brightnessAndContrastController = BrightnessAndContrastController(0.0, 1.0)
         binding.sbBrightness.let {
             it.max = 200
             it.progress = 100
@@ -203,17 +219,23 @@ class EditActivity : BaseActivity(), View.OnClickListener, OnSeekBarChangeListen
 
     private fun resetBrightnessAndContrast() {
         brightnessAndContrastController.brightness = 0.0
-        brightnessAndContrastController.contrast = 0.0
+        brightnessAndContrastController.contrast = 1.0
         binding.sbBrightness.progress = 100
         binding.sbContrast.progress = 100
     }
 
+    /**
+     * Shows [mat] as the edited page. The page it replaces is released once the preview no
+     * longer reads it.
+     */
+    private fun replaceEditedMat(mat: Mat) {
+        previewRenderer.retire(editedMat)
+        editedMat = mat
+        previewMat(mat)
+    }
+
     private fun previewMat(mat: Mat) {
-        val bitmap = Bitmap.createBitmap(mat.width(), mat.height(), Bitmap.Config.ARGB_8888)
-        matToBitmap(mat, bitmap)
-        lifecycleScope.launch(Dispatchers.Main) {
-            binding.ivEdit.setImageBitmap(bitmap)
-        }
+        previewRenderer.render(mat, brightnessAndContrastController)
     }
 
     override fun onNavigationItemSelected(item: MenuItem): Boolean {
@@ -240,12 +262,33 @@ class EditActivity : BaseActivity(), View.OnClickListener, OnSeekBarChangeListen
     private fun saveImage() {
         binding.pbEdit.visibility = View.VISIBLE
         lifecycleScope.launch(Dispatchers.IO) {
-            brightnessAndContrastController.mat?.let {
-                editedMat = it
+            previewRenderer.stop()
+            if (!brightnessAndContrastController.isIdentity) {
+                val adjusted = Mat()
+                brightnessAndContrastController.process(editedMat, adjusted)
+                editedMat.release()
+                editedMat = adjusted
             }
+            val quality = PageCodec.jpegQuality(this@EditActivity)
+            val format = PageCodec.formatOf(editedMat)
+            val oldUri = frame.editedUri
+            val editedUri = oldUri?.takeIf { frame.format == format }
+                ?: PageCodec.createFile(this@EditActivity, format).absolutePath
             Utils.let {
-                it.saveMat(editedMat, frame.editedUri)
-                it.saveMat(croppedMat, frame.croppedUri)
+                it.saveMat(editedMat, editedUri, format, quality)
+                it.saveMat(croppedMat, frame.croppedUri, quality = quality)
+            }
+            frame.editedUri = editedUri
+            frame.format = format
+            frame.version++
+            Thumbnails.write(editedMat, editedUri, frame.version)
+            withContext(NonCancellable) {
+                viewModel.saveFrame(frame)
+                // the row no longer points at the old file, so it can go now
+                if (oldUri != null && oldUri != editedUri) {
+                    File(oldUri).delete()
+                    Thumbnails.delete(oldUri)
+                }
             }
             Intent().let {
                 it.putExtra(
@@ -264,8 +307,10 @@ class EditActivity : BaseActivity(), View.OnClickListener, OnSeekBarChangeListen
 
     private fun rotateLeft() {
         Core.rotate(croppedMat, croppedMat, Core.ROTATE_90_COUNTERCLOCKWISE)
-        Core.rotate(editedMat, editedMat, Core.ROTATE_90_COUNTERCLOCKWISE)
-        previewMat(editedMat)
+        // the preview may still be reading the old page, so rotate into a new one
+        replaceEditedMat(Mat().also {
+            Core.rotate(editedMat, it, Core.ROTATE_90_COUNTERCLOCKWISE)
+        })
     }
 
     override fun onClick(view: View) {
@@ -301,8 +346,7 @@ class EditActivity : BaseActivity(), View.OnClickListener, OnSeekBarChangeListen
                 })
             }
             R.id.iv_original_image -> {
-                editedMat = croppedMat.clone()
-                previewMat(editedMat)
+                replaceEditedMat(croppedMat.clone())
             }
         }
     }
@@ -315,7 +359,7 @@ class EditActivity : BaseActivity(), View.OnClickListener, OnSeekBarChangeListen
                     "Contrast • %d%%",
                     i - 100
                 )
-                brightnessAndContrastController.setContrast(editedMat, i / 100.0)
+                brightnessAndContrastController.contrast = i / 100.0
             }
             R.id.sb_brightness -> {
                 binding.tvBrightness.text = String.format(
@@ -323,14 +367,10 @@ class EditActivity : BaseActivity(), View.OnClickListener, OnSeekBarChangeListen
                     "Brightness • %d%%",
                     i - 100
                 )
-                brightnessAndContrastController.setBrightness(editedMat, (i - 100).toDouble())
-            }
-            else -> {
-                editedMat
+                brightnessAndContrastController.brightness = (i - 100).toDouble()
             }
-        }.let {
-            previewMat(it)
         }
+        previewMat(editedMat)
     }
 
     override fun onStartTrackingTouch(seekBar: SeekBar?) {}
@@ -20,7 +20,6 @@ package com.wonderscan.android.activity
 import android.app.Activity
 import android.content.Intent
 import android.content.pm.PackageManager
-import android.graphics.Bitmap
 import android.graphics.BitmapFactory
 import android.graphics.ImageFormat
 import android.os.Bundle
@@ -34,15 +33,20 @@ import androidx.core.app.ActivityCompat
 import androidx.core.content.ContextCompat
 import androidx.lifecycle.ViewModelProvider
 import androidx.lifecycle.lifecycleScope
+import com.wonderscan.android.BuildConfig
 import com.wonderscan.android.WonderScanApp
 import com.wonderscan.android.R
+import com.wonderscan.android.data.BoundingRect
+import com.wonderscan.android.data.PageFormat
 import com.wonderscan.android.databinding.ActivityScanBinding
+import com.wonderscan.android.utils.AnalysisScheduler
+import com.wonderscan.android.utils.CornerExchange
 import com.wonderscan.android.utils.DetectBox
+import com.wonderscan.android.utils.FrameContext
+import com.wonderscan.android.utils.PageCodec
 import com.wonderscan.android.utils.Utils
-import com.wonderscan.android.utils.YuvToRgbConverter
 import com.wonderscan.android.viewmodel.ScanActivityViewModel
 import com.wonderscan.android.viewmodel.ScanActivityViewModelFactory
-import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import java.text.SimpleDateFormat
 import java.util.*
@@ -53,12 +57,21 @@ class ScanActivity : BaseActivity() {
     private val requiredPermissions =
         arrayOf("android.permission.CAMERA", "android.permission.WRITE_EXTERNAL_STORAGE")
     private var count = 0
+    @Volatile
     private var angle = 0
 
     private lateinit var executor: Executor
     private lateinit var binding: ActivityScanBinding
     private lateinit var viewModel: ScanActivityViewModel
-    private lateinit var converter: YuvToRgbConverter
+    private val frameContext = FrameContext()
+    private val cornerExchange = CornerExchange()
+    private val analysisCorners = DoubleArray(8)
+    private val shownCorners = BoundingRect()
+    private var imageAnalysis: ImageAnalysis? = null
+    private val analysisScheduler = AnalysisScheduler(DETECTION_RATE) { imageProxy, start ->
+        angle = imageProxy.imageInfo.rotationDegrees
+        processImage(imageProxy, start)
+    }
 
     private fun initialiseViewModel() {
         (application as WonderScanApp).database?.let { db ->
@@ -81,7 +94,6 @@ class ScanActivity : BaseActivity() {
         binding = ActivityScanBinding.inflate(layoutInflater)
         setContentView(binding.root)
         executor = ContextCompat.getMainExecutor(this)
-        converter = YuvToRgbConverter(this)
         initialiseViewModel()
         intent.getStringExtra(getString(R.string.intent_document_id))?.let { docId ->
             viewModel.getPageCount(docId).observe(this) { count -> this.count = count }
@@ -92,6 +104,14 @@ class ScanActivity : BaseActivity() {
         binding.ivRecentCapture.setOnClickListener {
             confirm()
         }
+        lifecycleScope.launch {
+            cornerExchange.collect { corners, startNanos ->
+                binding.scanView.setBoundingRect(corners?.let {
+                    shownCorners.apply { fromCorners(it) }
+                })
+                analysisScheduler.onResultShown(startNanos)
+            }
+        }
         if (allPermissionsGranted()) {
             startCamera()
         } else {
@@ -99,6 +119,21 @@ class ScanActivity : BaseActivity() {
         }
     }
 
+    override fun onDestroy() {
+        super.onDestroy()
+        imageAnalysis?.clearAnalyzer()
+        if (BuildConfig.DEBUG) analysisScheduler.let {
+            Log.d(
+                TAG,
+                "detections: ${it.processedFrames}, throttled: ${it.throttledFrames}, " +
+                        "skipped: ${it.skippedFrames}, " +
+                        "average detection time: ${it.averageDetectionMillis}ms, " +
+                        "average latency: ${it.averageLatencyMillis}ms"
+            )
+        }
+        analysisScheduler.shutdown { frameContext.release() }
+    }
+
     private fun allPermissionsGranted(): Boolean {
         for (permission in requiredPermissions) {
             if (ContextCompat.checkSelfPermission(
@@ -139,25 +174,10 @@ class ScanActivity : BaseActivity() {
         }, ContextCompat.getMainExecutor(this))
     }
 
-    @ExperimentalGetImage
-    fun processImage(imageProxy: ImageProxy) {
-        imageProxy.image?.let { image ->
-            if (image.format == ImageFormat.YUV_420_888) {
-                lifecycleScope.launch(Dispatchers.Default) {
-                    Bitmap.createBitmap(image.width, image.height, Bitmap.Config.ARGB_8888)
-                        .let { bitmap ->
-                            converter.yuvToRgb(image, bitmap)
-                            DetectBox.findCorners(bitmap, angle).let { box ->
-                                imageProxy.close()
-                                lifecycleScope.launch(Dispatchers.Main) {
-                                    binding.scanView.setBoundingRect(box)
-                                }
-                            }
-                        }
-                }
-            } else {
-                imageProxy.close()
-            }
+    private fun processImage(imageProxy: ImageProxy, startNanos: Long) {
+        if (imageProxy.format == ImageFormat.YUV_420_888) {
+            val found = DetectBox.findCorners(imageProxy, angle, frameContext, analysisCorners)
+            cornerExchange.publish(if (found) analysisCorners else null, startNanos)
         }
     }
 
@@ -169,18 +189,18 @@ class ScanActivity : BaseActivity() {
             .build()
         val builder = ImageCapture.Builder()
         val imageCapture = builder.build()
-        val imageAnalysis = ImageAnalysis.Builder().build()
+        val imageAnalysis = ImageAnalysis.Builder()
+            .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
+            .build()
+        this.imageAnalysis = imageAnalysis
 
         preview.setSurfaceProvider(binding.viewFinder.surfaceProvider)
         cameraProvider.bindToLifecycle(this, cameraSelector, preview, imageCapture, imageAnalysis)
-        imageAnalysis.setAnalyzer(ContextCompat.getMainExecutor(this), { imageProxy: ImageProxy ->
-            angle = imageProxy.imageInfo.rotationDegrees
-            processImage(imageProxy)
-        })
+        imageAnalysis.setAnalyzer(analysisScheduler.executor, analysisScheduler)
 
         binding.btnCapture.setOnClickListener {
             binding.pbScan.visibility = View.VISIBLE
-            val file = Utils.createPhotoFile(this)
+            val file = PageCodec.createFile(this, PageFormat.JPEG)
             imageCapture.takePicture(
                 ImageCapture.OutputFileOptions.Builder(file).build(),
                 executor,
@@ -220,5 +240,8 @@ class ScanActivity : BaseActivity() {
 
     companion object {
         val TAG: String = ScanActivity::class.java.simpleName
+
+        // detections per second, enough for the box to follow the hand holding the phone
+        private const val DETECTION_RATE = AnalysisScheduler.DEFAULT_TARGET_RATE
     }
 }
\ No newline at end of file
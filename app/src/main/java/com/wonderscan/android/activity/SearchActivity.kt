@@ -22,16 +22,18 @@ import android.text.Editable
 import android.text.TextWatcher
 import android.view.MenuItem
 import androidx.lifecycle.ViewModelProvider
+import androidx.recyclerview.widget.ConcatAdapter
 import androidx.recyclerview.widget.LinearLayoutManager
 import com.wonderscan.android.WonderScanApp
 import com.wonderscan.android.R
-import com.wonderscan.android.adapter.DocumentsAdapter
+import com.wonderscan.android.adapter.DocumentsFooterAdapter
+import com.wonderscan.android.adapter.SearchResultsAdapter
 import com.wonderscan.android.databinding.ActivitySearchBinding
 import com.wonderscan.android.viewmodel.SearchActivityViewModel
 import com.wonderscan.android.viewmodel.SearchActivityViewModelFactory
 
 class SearchActivity : BaseActivity() {
-    private lateinit var documentsAdapter: DocumentsAdapter
+    private lateinit var resultsAdapter: SearchResultsAdapter
     lateinit var viewModel: SearchActivityViewModel
 
     override fun onOptionsItemSelected(item: MenuItem): Boolean {
@@ -45,7 +47,7 @@ class SearchActivity : BaseActivity() {
         (application as WonderScanApp).database?.let { db ->
             viewModel = ViewModelProvider(
                 this,
-                SearchActivityViewModelFactory(db.documentDao(), db.frameDao())
+                SearchActivityViewModelFactory(db.documentDao())
             ).get(
                 SearchActivityViewModel::class.java
             )
@@ -65,15 +67,15 @@ class SearchActivity : BaseActivity() {
         }
 
         initialiseViewModel()
-        documentsAdapter = DocumentsAdapter(this, ArrayList(), viewModel)
+        resultsAdapter = SearchResultsAdapter(this)
 
         binding.recyclerView.let {
             it.layoutManager = LinearLayoutManager(this)
-            it.adapter = documentsAdapter
+            it.adapter = ConcatAdapter(resultsAdapter, DocumentsFooterAdapter(this))
         }
 
-        viewModel.documents.observe(this) { documents ->
-            documentsAdapter.updateDocuments(documents)
+        viewModel.documents.observe(this) { results ->
+            resultsAdapter.submitList(results)
         }
 
         binding.etSearch.let {
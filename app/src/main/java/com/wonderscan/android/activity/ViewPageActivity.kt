@@ -22,7 +22,6 @@ import android.app.Activity
 import android.app.AlertDialog
 import android.content.DialogInterface
 import android.content.Intent
-import android.graphics.BitmapFactory
 import android.os.Bundle
 import android.view.Menu
 import android.view.MenuItem
@@ -33,6 +32,7 @@ import android.widget.TextView
 import android.widget.Toast
 import androidx.activity.result.contract.ActivityResultContracts
 import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.lifecycleScope
 import androidx.viewpager.widget.ViewPager
 import com.wonderscan.android.R
 import com.wonderscan.android.WonderScanApp
@@ -42,10 +42,8 @@ import com.wonderscan.android.databinding.ActivityViewFramesBinding
 import com.wonderscan.android.viewmodel.ViewPageActivityViewModel
 import com.wonderscan.android.viewmodel.ViewPageActivityViewModelFactory
 import com.google.android.material.navigation.NavigationBarView
-import com.google.mlkit.vision.common.InputImage
-import com.google.mlkit.vision.text.Text
-import com.google.mlkit.vision.text.TextRecognition
-import com.google.mlkit.vision.text.latin.TextRecognizerOptions
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
 
 class ViewPageActivity : BaseActivity(), NavigationBarView.OnItemSelectedListener,
     ViewPager.OnPageChangeListener {
@@ -140,26 +138,22 @@ class ViewPageActivity : BaseActivity(), NavigationBarView.OnItemSelectedListene
                 cropResultLauncher.launch(cropIntent)
             }
             R.id.menu_ocr -> {
+                val frameId = viewFrameAdapter.get(getCurrentIndex()).id
                 Toast.makeText(this, "Detecting Text. Please wait", Toast.LENGTH_SHORT).show()
-                val recognizer = TextRecognition.getClient(TextRecognizerOptions.DEFAULT_OPTIONS)
-                val bitmap =
-                    BitmapFactory.decodeFile(viewFrameAdapter.get(getCurrentIndex()).editedUri)
-                recognizer.process(InputImage.fromBitmap(bitmap, 0))
-                    .addOnSuccessListener { text: Text ->
-                        showNoteDialog(
-                            "Detected Text",
-                            "",
-                            text.text,
-                            viewFrameAdapter.get(getCurrentIndex())
-                        )
-                    }
-                    .addOnFailureListener {
-                        Toast.makeText(
-                            this,
-                            "ERROR: Could not detect text",
-                            Toast.LENGTH_SHORT
-                        ).show()
+                lifecycleScope.launch(Dispatchers.IO) {
+                    val frame = (application as WonderScanApp).ocrIndexer.index(frameId)
+                    launch(Dispatchers.Main) {
+                        if (frame?.ocr != null) {
+                            showNoteDialog("Detected Text", "", frame.ocr, frame)
+                        } else {
+                            Toast.makeText(
+                                this@ViewPageActivity,
+                                "ERROR: Could not detect text",
+                                Toast.LENGTH_SHORT
+                            ).show()
+                        }
                     }
+                }
             }
         }
         return false
@@ -168,8 +162,7 @@ class ViewPageActivity : BaseActivity(), NavigationBarView.OnItemSelectedListene
     var cropResultLauncher =
         registerForActivityResult(ActivityResultContracts.StartActivityForResult()) { result ->
             if (result.resultCode == RESULT_OK) {
-                val frame = viewFrameAdapter.get(getCurrentIndex()).apply { editedUri = null }
-                viewModel.updateFrame(frame)
+                viewModel.discardEdits(viewFrameAdapter.get(getCurrentIndex()))
             }
         }
 
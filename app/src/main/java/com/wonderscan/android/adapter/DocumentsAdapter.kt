@@ -17,7 +17,6 @@
  */
 package com.wonderscan.android.adapter
 
-import android.annotation.SuppressLint
 import android.app.Activity
 import android.content.Intent
 import android.view.LayoutInflater
@@ -25,97 +24,90 @@ import android.view.View
 import android.view.ViewGroup
 import android.widget.ImageView
 import android.widget.TextView
+import androidx.paging.PagingDataAdapter
+import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.RecyclerView
 import com.bumptech.glide.Glide
 import com.bumptech.glide.load.resource.bitmap.DownsampleStrategy
 import com.wonderscan.android.R
-import com.wonderscan.android.activity.BaseActivity
 import com.wonderscan.android.activity.ListFramesActivity
-import com.wonderscan.android.data.Document
-import com.wonderscan.android.utils.Utils
-import com.wonderscan.android.viewmodel.MainViewModel
+import com.wonderscan.android.data.DocumentSummary
+import com.wonderscan.android.utils.Thumbnails
+import com.wonderscan.android.utils.Thumbnails.Kind
 import java.text.SimpleDateFormat
 import java.util.*
 
-class DocumentsAdapter(
-    private val activity: Activity,
-    private var data: List<Document>,
-    val viewModel: MainViewModel
-) :
-    RecyclerView.Adapter<RecyclerView.ViewHolder>() {
+/**
+ * Shows pages of document summaries, diffed off the main thread so only the rows that changed
+ * are rebound. Use with [DocumentsFooterAdapter] in a ConcatAdapter for the footer row.
+ */
+class DocumentsAdapter(private val activity: Activity) :
+    PagingDataAdapter<DocumentSummary, DocumentsAdapter.ViewHolder>(DIFF_CALLBACK) {
     private var simpleDateFormat: SimpleDateFormat =
         SimpleDateFormat("dd MMM, yyyy hh:mm", Locale.getDefault())
-    private var maxWidth: Int
-
-    @SuppressLint("NotifyDataSetChanged")
-    fun updateDocuments(documents: List<Document>) {
-        data = documents
-        notifyDataSetChanged()
-    }
 
-    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): RecyclerView.ViewHolder {
+    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ViewHolder {
         val layoutInflater = LayoutInflater.from(parent.context)
-        return if (viewType == TYPE_NORMAL) {
-            NormalViewHolder(layoutInflater.inflate(R.layout.row_document, parent, false))
-        } else {
-            FooterViewHolder(layoutInflater.inflate(R.layout.row_documents_footer, parent, false))
-        }
-    }
-
-    override fun onBindViewHolder(holder: RecyclerView.ViewHolder, position: Int) {
-        if (position < data.size) {
-            val document = data[position]
-            (holder as NormalViewHolder).apply {
-                title.text = document.name
-                subtitle.text = simpleDateFormat.format(Date(document.dateTime))
-                viewModel.getPageCount(document.id).observe(activity as BaseActivity) { count ->
-                    sheetNumber.text = String.format(
-                        Locale.getDefault(),
-                        "%d pages", count
-                    )
-                }
-                itemView.setOnClickListener {
-                    val intent = Intent(activity, ListFramesActivity::class.java)
-                    intent.putExtra(activity.getString(R.string.intent_document_id), document.id)
-                    activity.startActivity(intent)
-                }
-                viewModel.getFirstFrameImagePath(document.id)?.observe(activity) { uri ->
-                    Glide.with(activity).load(uri).downsample(DownsampleStrategy.AT_MOST)
-                        .into(imageView)
-                }
-            }
-        } else {
-            holder.itemView.setOnClickListener { Utils.shareAppLink(activity) }
-        }
-    }
-
-    override fun getItemViewType(position: Int): Int {
-        return if (position == data.size) {
-            TYPE_FOOTER
-        } else {
-            TYPE_NORMAL
-        }
+        return ViewHolder(layoutInflater.inflate(R.layout.row_document, parent, false))
     }
 
-    override fun getItemCount(): Int {
-        return data.size + 1
+    override fun onBindViewHolder(holder: ViewHolder, position: Int) {
+        holder.bind(activity, getItem(position) ?: return, simpleDateFormat)
     }
 
-    class NormalViewHolder(itemView: View) : RecyclerView.ViewHolder(itemView) {
+    class ViewHolder(itemView: View) : RecyclerView.ViewHolder(itemView) {
         var imageView: ImageView = itemView.findViewById(R.id.iv_frame)
         var title: TextView = itemView.findViewById(R.id.tv_title)
         var subtitle: TextView = itemView.findViewById(R.id.tv_sub_title)
         var sheetNumber: TextView = itemView.findViewById(R.id.tv_number)
+
+        fun bind(activity: Activity, summary: DocumentSummary, dateFormat: SimpleDateFormat) {
+            val document = summary.document
+            title.text = document.name
+            subtitle.text = dateFormat.format(Date(document.dateTime))
+            sheetNumber.text = String.format(
+                Locale.getDefault(),
+                "%d pages", summary.pageCount
+            )
+            itemView.setOnClickListener {
+                val intent = Intent(activity, ListFramesActivity::class.java)
+                intent.putExtra(activity.getString(R.string.intent_document_id), document.id)
+                activity.startActivity(intent)
+            }
+            val cover = summary.coverPath
+            if (cover != null) {
+                Thumbnails.load(Glide.with(activity), cover, summary.coverVersion, Kind.LIST)
+                    .downsample(DownsampleStrategy.AT_MOST)
+                    .into(imageView)
+            } else {
+                Glide.with(activity).clear(imageView)
+            }
+        }
     }
 
-    class FooterViewHolder(itemView: View) : RecyclerView.ViewHolder(itemView)
     companion object {
-        private const val TYPE_NORMAL = 0
-        private const val TYPE_FOOTER = 1
-    }
+        private val DIFF_CALLBACK = object : DiffUtil.ItemCallback<DocumentSummary>() {
+            override fun areItemsTheSame(
+                oldItem: DocumentSummary,
+                newItem: DocumentSummary
+            ): Boolean {
+                return oldItem.document.id == newItem.document.id
+            }
 
-    init {
-        val deviceWidth = Utils.getDeviceWidth()
-        maxWidth = deviceWidth / 4
+            override fun areContentsTheSame(
+                oldItem: DocumentSummary,
+                newItem: DocumentSummary
+            ): Boolean {
+                return sameContents(oldItem, newItem)
+            }
+        }
+
+        fun sameContents(oldItem: DocumentSummary, newItem: DocumentSummary): Boolean {
+            return oldItem.document.name == newItem.document.name &&
+                    oldItem.document.dateTime == newItem.document.dateTime &&
+                    oldItem.pageCount == newItem.pageCount &&
+                    oldItem.coverPath == newItem.coverPath &&
+                    oldItem.coverVersion == newItem.coverVersion
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.adapter
+
+import android.app.Activity
+import android.view.LayoutInflater
+import android.view.View
+import android.view.ViewGroup
+import androidx.recyclerview.widget.RecyclerView
+import com.wonderscan.android.R
+import com.wonderscan.android.utils.Utils
+
+/**
+ * The share row shown below the list of documents.
+ */
+class DocumentsFooterAdapter(private val activity: Activity) :
+    RecyclerView.Adapter<DocumentsFooterAdapter.ViewHolder>() {
+
+    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ViewHolder {
+        val layoutInflater = LayoutInflater.from(parent.context)
+        return ViewHolder(layoutInflater.inflate(R.layout.row_documents_footer, parent, false))
+    }
+
+    override fun onBindViewHolder(holder: ViewHolder, position: Int) {
+        holder.itemView.setOnClickListener { Utils.shareAppLink(activity) }
+    }
+
+    override fun getItemCount(): Int {
+        return 1
+    }
+
+    class ViewHolder(itemView: View) : RecyclerView.ViewHolder(itemView)
+}
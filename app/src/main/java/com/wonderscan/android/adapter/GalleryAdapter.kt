@@ -17,42 +17,38 @@
  */
 package com.wonderscan.android.adapter
 
-import android.annotation.SuppressLint
 import android.content.Context
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
 import android.widget.ImageView
 import android.widget.TextView
+import androidx.paging.PagingDataAdapter
+import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.RecyclerView
 import com.bumptech.glide.Glide
 import com.bumptech.glide.load.resource.bitmap.DownsampleStrategy
 import com.wonderscan.android.R
+import com.wonderscan.android.data.GalleryImage
+import com.wonderscan.android.utils.OrderedSelection
 
-class GalleryAdapter(var context: Context?, private var data: List<String>) :
-    RecyclerView.Adapter<GalleryAdapter.ViewHolder?>() {
-    private val positions: MutableList<Int> = ArrayList()
+class GalleryAdapter(var context: Context?) :
+    PagingDataAdapter<GalleryImage, GalleryAdapter.ViewHolder>(DIFF_CALLBACK) {
+    private val selection = OrderedSelection<Long>()
 
-    @SuppressLint("NotifyDataSetChanged")
     fun reset() {
-        positions.clear()
-        notifyDataSetChanged()
-    }
-
-    fun setImagePaths(data: MutableList<String>) {
-        this.data = data
+        if (selection.isEmpty()) return
+        val positions = positionsOf(selection.toList())
+        clearSelection()
+        notifySelectionChanged(positions)
     }
 
     fun clearSelection() {
-        positions.clear()
+        selection.clear()
     }
 
     fun getSelectedUris(): ArrayList<String> {
-        val uris = ArrayList<String>()
-        for (pos in positions) {
-            uris.add(data[pos])
-        }
-        return uris
+        return selection.toList().mapTo(ArrayList()) { GalleryImage.uriOf(it).toString() }
     }
 
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ViewHolder {
@@ -60,36 +56,79 @@ class GalleryAdapter(var context: Context?, private var data: List<String>) :
         return ViewHolder(layoutInflater.inflate(R.layout.row_image, parent, false))
     }
 
-    @SuppressLint("NotifyDataSetChanged")
+    override fun onBindViewHolder(holder: ViewHolder, position: Int, payloads: MutableList<Any>) {
+        val image = peek(position)
+        if (image != null && payloads.isNotEmpty() && payloads.all { it == PAYLOAD_SELECTION }) {
+            bindSelection(holder, image)
+        } else {
+            super.onBindViewHolder(holder, position, payloads)
+        }
+    }
+
     override fun onBindViewHolder(holder: ViewHolder, position: Int) {
-        val uri = data[position]
+        val image = getItem(position) ?: return
         holder.apply {
             context?.let {
-                Glide.with(it).load(uri).centerCrop().downsample(DownsampleStrategy.AT_MOST)
+                Glide.with(it).load(image.uri).centerCrop().downsample(DownsampleStrategy.AT_MOST)
                     .into(imageView)
             }
-            if (positions.contains(position)) {
+            bindSelection(this, image)
+            imageView.setOnClickListener {
+                val current = bindingAdapterPosition
+                if (current == RecyclerView.NO_POSITION) return@setOnClickListener
+                if (image.id in selection) {
+                    val renumbered = selection.remove(image.id)
+                    notifyItemChanged(current, PAYLOAD_SELECTION)
+                    notifySelectionChanged(positionsOf(renumbered))
+                } else {
+                    selection.add(image.id)
+                    notifyItemChanged(current, PAYLOAD_SELECTION)
+                }
+            }
+        }
+    }
+
+    private fun bindSelection(holder: ViewHolder, image: GalleryImage) {
+        holder.apply {
+            val ordinal = selection.ordinalOf(image.id)
+            if (ordinal >= 0) {
                 imageView.alpha = 0.5f
-                bubble.text = (positions.indexOf(position) + 1).toString()
+                bubble.text = (ordinal + 1).toString()
                 bubble.visibility = View.VISIBLE
             } else {
                 imageView.alpha = 1f
                 bubble.visibility = View.GONE
             }
-            imageView.setOnClickListener {
-                if (positions.contains(adapterPosition)) {
-                    positions.remove(Integer.valueOf(adapterPosition))
-                    notifyDataSetChanged()
-                } else {
-                    positions.add(adapterPosition)
-                    notifyItemChanged(adapterPosition)
-                }
-            }
         }
     }
 
-    override fun getItemCount(): Int {
-        return data.size
+    /**
+     * Finds where the images with [ids] are in the list as it is now. Positions are looked up
+     * rather than remembered because refreshes of the gallery move rows around.
+     */
+    private fun positionsOf(ids: Collection<Long>): List<Int> {
+        if (ids.isEmpty()) return emptyList()
+        val wanted = ids.toHashSet()
+        val positions = ArrayList<Int>()
+        snapshot().forEachIndexed { position, image ->
+            if (image != null && image.id in wanted) positions.add(position)
+        }
+        return positions
+    }
+
+    /**
+     * Rebinds the selection state of the cells at [positions], one range per run of adjacent
+     * positions, without reloading their thumbnails.
+     */
+    private fun notifySelectionChanged(positions: List<Int>) {
+        val sorted = positions.sorted()
+        var i = 0
+        while (i < sorted.size) {
+            var j = i
+            while (j + 1 < sorted.size && sorted[j + 1] == sorted[j] + 1) j++
+            notifyItemRangeChanged(sorted[i], j - i + 1, PAYLOAD_SELECTION)
+            i = j + 1
+        }
     }
 
     class ViewHolder(itemView: View) : RecyclerView.ViewHolder(itemView) {
@@ -97,4 +136,18 @@ class GalleryAdapter(var context: Context?, private var data: List<String>) :
         var bubble: TextView = itemView.findViewById(R.id.iv_bubble)
 
     }
-}
\ No newline at end of file
+
+    companion object {
+        private const val PAYLOAD_SELECTION = "selection"
+
+        private val DIFF_CALLBACK = object : DiffUtil.ItemCallback<GalleryImage>() {
+            override fun areItemsTheSame(oldItem: GalleryImage, newItem: GalleryImage): Boolean {
+                return oldItem.id == newItem.id
+            }
+
+            override fun areContentsTheSame(oldItem: GalleryImage, newItem: GalleryImage): Boolean {
+                return oldItem == newItem
+            }
+        }
+    }
+}
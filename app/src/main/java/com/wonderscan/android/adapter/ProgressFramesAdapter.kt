@@ -27,11 +27,13 @@ import android.widget.ImageView
 import android.widget.TextView
 import androidx.recyclerview.widget.RecyclerView
 import com.bumptech.glide.Glide
-import com.bumptech.glide.load.engine.DiskCacheStrategy
+import com.bumptech.glide.signature.ObjectKey
 import com.wonderscan.android.R
 import com.wonderscan.android.activity.ListFramesActivity
 import com.wonderscan.android.activity.ViewPageActivity
 import com.wonderscan.android.data.Frame
+import com.wonderscan.android.utils.Thumbnails
+import com.wonderscan.android.utils.Thumbnails.Kind
 import java.util.*
 
 class ProgressFramesAdapter(
@@ -72,15 +74,22 @@ class ProgressFramesAdapter(
             } else {
                 textView.text = frame.name
             }
-            if (frame.editedUri == null) {
+            val editedUri = frame.editedUri
+            if (editedUri == null && frame.previewUri != null) {
+                Glide.with(activity)
+                    .load(frame.previewUri)
+                    .into(imageView)
+                progressBar.background = null
+                progressBar.visibility = View.VISIBLE
+            } else if (editedUri == null) {
                 Glide.with(activity)
                     .load(frame.uri)
-                    .diskCacheStrategy(DiskCacheStrategy.NONE)
-                    .skipMemoryCache(true)
+                    .signature(ObjectKey(frame.version))
                     .into(imageView)
+                progressBar.setBackgroundResource(R.drawable.background_progress)
+                progressBar.visibility = View.VISIBLE
             } else {
-                Glide.with(activity)
-                    .load(frame.editedUri)
+                Thumbnails.load(Glide.with(activity), editedUri, frame.version, Kind.GRID)
                     .into(imageView)
                 if (progressBar.visibility == View.VISIBLE)
                     progressBar.visibility = View.GONE
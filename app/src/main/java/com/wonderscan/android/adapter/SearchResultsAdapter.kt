@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.adapter
+
+import android.app.Activity
+import android.graphics.Typeface
+import android.text.SpannableStringBuilder
+import android.text.Spanned
+import android.text.style.StyleSpan
+import android.view.LayoutInflater
+import android.view.ViewGroup
+import androidx.recyclerview.widget.DiffUtil
+import androidx.recyclerview.widget.ListAdapter
+import com.wonderscan.android.R
+import com.wonderscan.android.data.SearchResult
+import java.text.SimpleDateFormat
+import java.util.*
+
+/**
+ * Shows search results in the same rows as [DocumentsAdapter]. A document found through its
+ * pages shows the matching text in place of its date and how many of its pages match.
+ */
+class SearchResultsAdapter(private val activity: Activity) :
+    ListAdapter<SearchResult, DocumentsAdapter.ViewHolder>(DIFF_CALLBACK) {
+    private var simpleDateFormat: SimpleDateFormat =
+        SimpleDateFormat("dd MMM, yyyy hh:mm", Locale.getDefault())
+
+    override fun onCreateViewHolder(
+        parent: ViewGroup,
+        viewType: Int
+    ): DocumentsAdapter.ViewHolder {
+        val layoutInflater = LayoutInflater.from(parent.context)
+        return DocumentsAdapter.ViewHolder(
+            layoutInflater.inflate(R.layout.row_document, parent, false)
+        )
+    }
+
+    override fun onBindViewHolder(holder: DocumentsAdapter.ViewHolder, position: Int) {
+        val result = getItem(position)
+        holder.bind(activity, result.summary, simpleDateFormat)
+        result.snippet?.let { holder.subtitle.text = highlight(it) }
+        if (result.pageHits > 0) {
+            holder.sheetNumber.text = activity.getString(
+                R.string.search_page_hits, result.summary.pageCount, result.pageHits
+            )
+        }
+    }
+
+    /**
+     * Turns the terms the search put in brackets into bold text.
+     */
+    private fun highlight(snippet: String): CharSequence {
+        val text = SpannableStringBuilder()
+        var start = -1
+        for (c in snippet) {
+            when {
+                c == '[' && start < 0 -> start = text.length
+                c == ']' && start >= 0 -> {
+                    text.setSpan(
+                        StyleSpan(Typeface.BOLD), start, text.length,
+                        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE
+                    )
+                    start = -1
+                }
+                else -> text.append(c)
+            }
+        }
+        return text
+    }
+
+    companion object {
+        private val DIFF_CALLBACK = object : DiffUtil.ItemCallback<SearchResult>() {
+            override fun areItemsTheSame(oldItem: SearchResult, newItem: SearchResult): Boolean {
+                return oldItem.summary.document.id == newItem.summary.document.id
+            }
+
+            override fun areContentsTheSame(
+                oldItem: SearchResult,
+                newItem: SearchResult
+            ): Boolean {
+                return DocumentsAdapter.sameContents(oldItem.summary, newItem.summary) &&
+                        oldItem.pageHits == newItem.pageHits &&
+                        oldItem.snippet == newItem.snippet
+            }
+        }
+    }
+}
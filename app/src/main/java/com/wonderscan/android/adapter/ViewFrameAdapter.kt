@@ -24,10 +24,12 @@ import android.view.ViewGroup
 import android.widget.ImageView
 import androidx.viewpager.widget.PagerAdapter
 import com.bumptech.glide.Glide
-import com.bumptech.glide.load.engine.DiskCacheStrategy
+import com.bumptech.glide.signature.ObjectKey
 import com.wonderscan.android.R
 import com.wonderscan.android.data.Frame
-import com.jsibbold.zoomage.ZoomageView
+import com.wonderscan.android.utils.Thumbnails
+import com.wonderscan.android.utils.Thumbnails.Kind
+import com.wonderscan.android.view.TiledPageView
 
 class ViewFrameAdapter(private val activity: Activity, private var frames: MutableList<Frame>) :
     PagerAdapter() {
@@ -48,9 +50,12 @@ class ViewFrameAdapter(private val activity: Activity, private var frames: Mutab
         this.frames = frames
     }
 
-    private fun loadImage(uri: String?, imageView: ImageView) {
-        Glide.with(activity).load(uri).diskCacheStrategy(DiskCacheStrategy.NONE)
-            .skipMemoryCache(true).into(imageView)
+    /**
+     * Pages are rewritten in place, so cached images are keyed by the frame's content version
+     * as well as by path.
+     */
+    private fun loadImage(uri: String?, version: Int, imageView: ImageView) {
+        Glide.with(activity).load(uri).signature(ObjectKey(version)).into(imageView)
     }
 
     override fun instantiateItem(container: ViewGroup, position: Int): Any {
@@ -58,11 +63,16 @@ class ViewFrameAdapter(private val activity: Activity, private var frames: Mutab
 
         @SuppressLint("InflateParams")
         val v = activity.layoutInflater.inflate(R.layout.row_page, null)
-        val imageView: ZoomageView = v.findViewById(R.id.ssiv_page)
+        val imageView: TiledPageView = v.findViewById(R.id.ssiv_page)
+        val editedUri = frame.editedUri
+        // only edited pages are tiled, the others may depend on their EXIF orientation
+        imageView.setSource(editedUri, frame.version)
         when {
-            frame.editedUri != null -> loadImage(frame.editedUri, imageView)
-            frame.croppedUri != null -> loadImage(frame.croppedUri, imageView)
-            else -> loadImage(frame.uri, imageView)
+            editedUri != null -> Thumbnails.load(
+                Glide.with(activity), editedUri, frame.version, Kind.PAGER
+            ).into(imageView)
+            frame.croppedUri != null -> loadImage(frame.croppedUri, frame.version, imageView)
+            else -> loadImage(frame.uri, frame.version, imageView)
         }
         container.addView(v)
         return v
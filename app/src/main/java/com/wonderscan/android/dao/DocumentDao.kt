@@ -19,8 +19,12 @@
 package com.wonderscan.android.dao
 
 import androidx.lifecycle.LiveData
+import androidx.paging.PagingSource
 import androidx.room.*
 import com.wonderscan.android.data.Document
+import com.wonderscan.android.data.DocumentSummary
+import com.wonderscan.android.data.SearchResult
+import kotlinx.coroutines.flow.Flow
 
 @Dao
 interface DocumentDao {
@@ -45,9 +49,72 @@ interface DocumentDao {
     @Query("SELECT name FROM Document WHERE id=:docId")
     suspend fun getDocumentName(docId: String): String
 
-    @Query("SELECT * FROM Document ORDER BY dateTime DESC")
-    fun getAllDocuments(): LiveData<MutableList<Document>>
+    /**
+     * Every document with its page count and the image of its first page, newest first.
+     */
+    @Query(
+        """SELECT Document.*, COUNT(Frame.id) AS pageCount,
+            (SELECT COALESCE(cover.editedUri, cover.uri) FROM Frame AS cover
+                WHERE cover.docId = Document.id ORDER BY cover.`index` LIMIT 1) AS coverPath,
+            (SELECT cover.version FROM Frame AS cover
+                WHERE cover.docId = Document.id ORDER BY cover.`index` LIMIT 1) AS coverVersion
+        FROM Document LEFT JOIN Frame ON Frame.docId = Document.id
+        GROUP BY Document.id
+        ORDER BY Document.dateTime DESC"""
+    )
+    fun getDocumentSummaries(): PagingSource<Int, DocumentSummary>
 
-    @Query("SELECT * FROM Document WHERE name LIKE :query ORDER BY dateTime DESC")
-    suspend fun search(query: String): MutableList<Document>
+    /**
+     * The newest [limit] documents, summarized like [getDocumentSummaries].
+     */
+    @Query(
+        """SELECT Document.*, COUNT(Frame.id) AS pageCount,
+            (SELECT COALESCE(cover.editedUri, cover.uri) FROM Frame AS cover
+                WHERE cover.docId = Document.id ORDER BY cover.`index` LIMIT 1) AS coverPath,
+            (SELECT cover.version FROM Frame AS cover
+                WHERE cover.docId = Document.id ORDER BY cover.`index` LIMIT 1) AS coverVersion
+        FROM Document LEFT JOIN Frame ON Frame.docId = Document.id
+        GROUP BY Document.id
+        ORDER BY Document.dateTime DESC
+        LIMIT :limit"""
+    )
+    suspend fun getRecentDocumentSummaries(limit: Int): List<DocumentSummary>
+
+    /**
+     * Emits once when collected and again whenever a document or a page changes. The value
+     * itself has no meaning.
+     */
+    @Query("SELECT (SELECT COUNT(*) FROM Document) + (SELECT COUNT(*) FROM Frame)")
+    fun observeChanges(): Flow<Int>
+
+    /**
+     * Searches document names, page notes and recognized text. [query] is an FTS4 match
+     * expression, see Utils.toFtsQuery. Documents whose name matches come first, then the ones
+     * with the most matching pages.
+     */
+    @Query(
+        """SELECT Document.*, MAX(hit.nameHit) AS nameHit, SUM(hit.pageHit) AS pageHits,
+            MAX(hit.snippet) AS snippet,
+            (SELECT COUNT(page.id) FROM Frame AS page WHERE page.docId = Document.id)
+                AS pageCount,
+            (SELECT COALESCE(cover.editedUri, cover.uri) FROM Frame AS cover
+                WHERE cover.docId = Document.id ORDER BY cover.`index` LIMIT 1) AS coverPath,
+            (SELECT cover.version FROM Frame AS cover
+                WHERE cover.docId = Document.id ORDER BY cover.`index` LIMIT 1) AS coverVersion
+        FROM (
+            SELECT Document.id AS docId, 1 AS nameHit, 0 AS pageHit, NULL AS snippet
+            FROM DocumentFts JOIN Document ON Document.rowid = DocumentFts.rowid
+            WHERE DocumentFts MATCH :query
+            UNION ALL
+            SELECT Frame.docId AS docId, 0 AS nameHit, 1 AS pageHit,
+                snippet(FrameFts, '[', ']', '…', -1, 10) AS snippet
+            FROM FrameFts JOIN Frame ON Frame.id = FrameFts.rowid
+            WHERE FrameFts MATCH :query
+        ) AS hit
+        JOIN Document ON Document.id = hit.docId
+        GROUP BY Document.id
+        ORDER BY nameHit DESC, pageHits DESC, Document.dateTime DESC
+        LIMIT :limit"""
+    )
+    suspend fun search(query: String, limit: Int): List<SearchResult>
 }
\ No newline at end of file
@@ -39,12 +39,18 @@ interface FrameDao {
     @Query("SELECT * FROM Frame WHERE id=:id")
     fun getFrame(id: Long): LiveData<Frame>
 
+    @Query("SELECT * FROM Frame WHERE id=:id")
+    suspend fun getFrameSync(id: Long): Frame?
+
+    @Query("SELECT id FROM Frame WHERE editedUri IS NOT NULL AND ocrHash IS NULL")
+    suspend fun getFrameIdsWithoutOcr(): List<Long>
+
+    @Query("UPDATE Frame SET ocr=:ocr, ocrHash=:ocrHash WHERE id=:id")
+    suspend fun updateOcr(id: Long, ocr: String, ocrHash: String)
+
     @Query("SELECT * FROM Frame WHERE docId=:docId ORDER BY `index`")
     suspend fun getFramesSync(docId: String): MutableList<Frame>
 
     @Query("SELECT COUNT(id) FROM Frame WHERE docId=:docId")
     fun getFrameCount(docId: String): LiveData<Int>
-
-    @Query("SELECT uri FROM Frame WHERE docId=:docId AND `index`=0")
-    fun getFrameUri(docId: String): LiveData<String>
 }
\ No newline at end of file
@@ -49,6 +49,21 @@ class BoundingRect {
         bottomRight = Point(points[3].x * hRatio, points[3].y * vRatio)
     }
 
+    /**
+     * Moves the corners in place to [values], x and y pairs in the order [fromPoints] takes.
+     */
+    fun fromCorners(values: DoubleArray) {
+        topRight.set(values, 0)
+        topLeft.set(values, 2)
+        bottomLeft.set(values, 4)
+        bottomRight.set(values, 6)
+    }
+
+    private fun Point.set(values: DoubleArray, offset: Int) {
+        x = values[offset]
+        y = values[offset + 1]
+    }
+
     fun getTop(): Point {
         return Point((topLeft.x + topRight.x) / 2f, (topLeft.y + topRight.y) / 2f)
     }
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.data
+
+import androidx.room.Entity
+import androidx.room.Fts4
+import androidx.room.FtsOptions
+
+/**
+ * Full-text index over document names, kept in sync with [Document] by Room's triggers.
+ */
+@Fts4(contentEntity = Document::class, tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity
+class DocumentFts(
+    var name: String?
+)
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.data
+
+import androidx.room.Embedded
+
+/**
+ * A document together with what its row in the library shows: the number of pages and the
+ * image of its first page, with that page's content version to find its thumbnail.
+ */
+class DocumentSummary(
+    @Embedded
+    val document: Document,
+    val pageCount: Int,
+    val coverPath: String?,
+    val coverVersion: Int
+)
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.data
+
+import android.content.Context
+import android.content.SharedPreferences
+import androidx.preference.PreferenceManager
+import com.wonderscan.android.R
+import com.wonderscan.android.utils.PageCodec
+
+/**
+ * How pages are laid out and resampled when a document is exported as PDF.
+ */
+data class ExportProfile(
+    val pageSize: PageSize = PageSize.A4,
+    val dpi: Int = DEFAULT_DPI,
+    val colorMode: ColorMode = ColorMode.COLOR,
+    val quality: Int = PageCodec.DEFAULT_JPEG_QUALITY
+) {
+
+    /**
+     * Page sizes in points. [ORIGINAL] keeps the aspect ratio of each page and fits it into
+     * an A4 sized box.
+     */
+    enum class PageSize(val width: Float, val height: Float) {
+        A4(595.28f, 841.89f),
+        LETTER(612f, 792f),
+        ORIGINAL(595.28f, 841.89f)
+    }
+
+    enum class ColorMode { COLOR, GRAY, BILEVEL }
+
+    companion object {
+        const val DEFAULT_DPI = 200
+
+        /**
+         * Reads the export settings. Missing values and ones no longer understood, for example
+         * left behind by an older version, fall back to the defaults.
+         */
+        fun fromPreferences(context: Context): ExportProfile {
+            val preferences = PreferenceManager.getDefaultSharedPreferences(context)
+            return ExportProfile(
+                preferences.getEnum(
+                    context.getString(R.string.key_export_page_size), PageSize.A4
+                ),
+                preferences.getString(context.getString(R.string.key_export_dpi), null)
+                    ?.toIntOrNull()?.takeIf { it > 0 } ?: DEFAULT_DPI,
+                preferences.getEnum(
+                    context.getString(R.string.key_export_color_mode), ColorMode.COLOR
+                ),
+                PageCodec.jpegQuality(context)
+            )
+        }
+
+        private inline fun <reified T : Enum<T>> SharedPreferences.getEnum(
+            key: String,
+            default: T
+        ): T {
+            val name = getString(key, null) ?: return default
+            return enumValues<T>().firstOrNull { it.name == name } ?: default
+        }
+    }
+}
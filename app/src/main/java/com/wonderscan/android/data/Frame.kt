@@ -43,7 +43,13 @@ class Frame(
     var name: String? = null,
     var note: String? = null,
     var ocr: String? = null,
+    var ocrHash: String? = null,
     var uri: String,
     var editedUri: String? = null,
-    var croppedUri: String? = null
+    var croppedUri: String? = null,
+    var previewUri: String? = null,
+    var format: PageFormat? = null,
+    /** incremented whenever one of the page's images is rewritten */
+    @ColumnInfo(defaultValue = "0")
+    var version: Int = 0
 ) : Serializable
\ No newline at end of file
@@ -15,29 +15,26 @@
  * You should have received a copy of the GNU General Public License
  * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
  */
+package com.wonderscan.android.data
 
-package com.wonderscan.android.viewmodel
+import android.content.ContentUris
+import android.net.Uri
+import android.provider.MediaStore
 
-import androidx.lifecycle.LiveData
-import androidx.lifecycle.MutableLiveData
-import androidx.lifecycle.ViewModel
-import androidx.lifecycle.viewModelScope
-import com.wonderscan.android.dao.FrameDao
-import kotlinx.coroutines.launch
-
-open class MainViewModel(
-    private val frameDao: FrameDao?
-) : ViewModel() {
+/**
+ * An image from the device's MediaStore, as listed in the gallery picker. Only the id and the
+ * sort key are kept in memory, the content uri is derived from the id.
+ */
+data class GalleryImage(
+    val id: Long,
+    val dateAdded: Long
+) {
+    val uri: Uri
+        get() = uriOf(id)
 
-    fun getPageCount(docId: String): LiveData<Int> {
-        lateinit var count: LiveData<Int>
-        viewModelScope.launch {
-            count = frameDao?.getFrameCount(docId) ?: MutableLiveData(0)
+    companion object {
+        fun uriOf(id: Long): Uri {
+            return ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, id)
         }
-        return count
-    }
-
-    fun getFirstFrameImagePath(docId: String): LiveData<String>? {
-        return frameDao?.getFrameUri(docId)
     }
-}
\ No newline at end of file
+}
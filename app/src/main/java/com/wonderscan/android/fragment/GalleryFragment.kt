@@ -17,84 +17,61 @@
  */
 package com.wonderscan.android.fragment
 
-import android.annotation.SuppressLint
 import android.content.Context
 import android.content.Intent
 import android.os.Bundle
-import android.provider.MediaStore
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
 import androidx.fragment.app.Fragment
-import androidx.lifecycle.lifecycleScope
+import androidx.lifecycle.ViewModelProvider
 import androidx.recyclerview.widget.GridLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.wonderscan.android.R
+import com.wonderscan.android.WonderScanApp
 import com.wonderscan.android.activity.CropAndListFramesActivity
 import com.wonderscan.android.adapter.GalleryAdapter
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.launch
-import java.util.*
+import com.wonderscan.android.viewmodel.GalleryFragmentViewModel
+import com.wonderscan.android.viewmodel.GalleryFragmentViewModelFactory
 
 open class GalleryFragment : Fragment() {
     private lateinit var adapter: GalleryAdapter
+    private lateinit var viewModel: GalleryFragmentViewModel
 
     override fun onResume() {
         super.onResume()
         adapter.reset()
     }
 
-    private fun getAllImages(): MutableList<String> {
-        val uris: MutableList<String> = ArrayList()
-        val projection = arrayOf(MediaStore.MediaColumns.DATA)
-        activity?.contentResolver?.query(
-            MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-            projection,
-            null,
-            null,
-            MediaStore.Images.Media.DATE_ADDED + " DESC"
-        )?.let { cursor ->
-            while (cursor.moveToNext()) {
-                val absolutePathOfImage =
-                    cursor.getString(cursor.getColumnIndex(MediaStore.MediaColumns.DATA))
-                uris.add(absolutePathOfImage)
-            }
-            cursor.close()
-        }
-        return uris
+    private fun initialiseViewModel() {
+        val app = requireActivity().application as WonderScanApp
+        viewModel = ViewModelProvider(
+            this,
+            GalleryFragmentViewModelFactory(app.galleryRepository)
+        ).get(GalleryFragmentViewModel::class.java)
     }
 
-    @SuppressLint("NotifyDataSetChanged")
     override fun onCreateView(
         inflater: LayoutInflater,
         container: ViewGroup?,
         savedInstanceState: Bundle?
     ): View? {
         val v = inflater.inflate(R.layout.fragment_gallery, container, false)
-        adapter = GalleryAdapter(activity, emptyList())
+        initialiseViewModel()
+        adapter = GalleryAdapter(activity)
         v.findViewById<RecyclerView>(R.id.recycler_view).let {
             it.setHasFixedSize(true)
             it.layoutManager = GridLayoutManager(activity, 5)
             it.adapter = adapter
         }
-        lifecycleScope.launch(Dispatchers.Main) {
-            val uris = getAllImages()
-            adapter.setImagePaths(uris)
-            lifecycleScope.launch(Dispatchers.Main) { adapter.notifyDataSetChanged() }
+        viewModel.images.observe(viewLifecycleOwner) { images ->
+            adapter.submitData(viewLifecycleOwner.lifecycle, images)
         }
         v.findViewById<View?>(R.id.fab).setOnClickListener {
-            v.findViewById<View?>(R.id.gallery_progress).visibility = View.VISIBLE
-            lifecycleScope.launch(Dispatchers.IO) {
-                adapter.getSelectedUris().let { uris ->
-                    Intent(activity, CropAndListFramesActivity::class.java).let {
-                        it.putExtra(getString(R.string.intent_uris), uris)
-                        adapter.clearSelection()
-                        lifecycleScope.launch(Dispatchers.Main) {
-                            startActivity(it)
-                            v.findViewById<View?>(R.id.gallery_progress).visibility = View.GONE
-                        }
-                    }
-                }
+            Intent(activity, CropAndListFramesActivity::class.java).let {
+                it.putExtra(getString(R.string.intent_uris), adapter.getSelectedUris())
+                adapter.clearSelection()
+                startActivity(it)
             }
         }
 
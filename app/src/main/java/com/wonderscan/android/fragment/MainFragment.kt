@@ -24,12 +24,14 @@ import android.view.View
 import android.view.ViewGroup
 import androidx.fragment.app.Fragment
 import androidx.lifecycle.ViewModelProvider
+import androidx.recyclerview.widget.ConcatAdapter
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.wonderscan.android.WonderScanApp
 import com.wonderscan.android.R
 import com.wonderscan.android.activity.ScanActivity
 import com.wonderscan.android.adapter.DocumentsAdapter
+import com.wonderscan.android.adapter.DocumentsFooterAdapter
 import com.wonderscan.android.viewmodel.MainActivityViewModel
 import com.wonderscan.android.viewmodel.MainActivityViewModelFactory
 
@@ -42,7 +44,7 @@ open class MainFragment : Fragment() {
             (activity.application as WonderScanApp).database?.let { db ->
                 viewModel = ViewModelProvider(
                     activity,
-                    MainActivityViewModelFactory(db.documentDao(), db.frameDao())
+                    MainActivityViewModelFactory(db.documentDao())
                 ).get(MainActivityViewModel::class.java)
             }
         }
@@ -61,14 +63,14 @@ open class MainFragment : Fragment() {
 
         initialiseViewModel()
 
-        documentsAdapter = DocumentsAdapter(requireActivity(), emptyList(), viewModel)
+        documentsAdapter = DocumentsAdapter(requireActivity())
 
         v.findViewById<RecyclerView>(R.id.recycler_view).let {
             it.setHasFixedSize(true)
             it.layoutManager = LinearLayoutManager(context)
-            it.adapter = documentsAdapter
-            viewModel.getAllDocuments()?.observe(viewLifecycleOwner) { documents ->
-                documentsAdapter.updateDocuments(documents)
+            it.adapter = ConcatAdapter(documentsAdapter, DocumentsFooterAdapter(requireActivity()))
+            viewModel.documents.observe(viewLifecycleOwner) { documents ->
+                documentsAdapter.submitData(viewLifecycleOwner.lifecycle, documents)
             }
         }
         return v
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.utils
+
+import android.os.SystemClock
+import androidx.camera.core.ImageAnalysis
+import androidx.camera.core.ImageProxy
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Analyzer that runs [detect] on its own thread, one frame at a time, at no more than
+ * [targetRate] frames per second. Use it together with
+ * [ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST] so that frames arriving while a detection is
+ * running are replaced by the newest one instead of queueing up behind it.
+ *
+ * Frames arriving earlier than the target rate allows are closed right away and counted in
+ * [throttledFrames]. Frames CameraX discarded before they reached the analyzer are never seen,
+ * so [skippedFrames] estimates them from the gaps between camera timestamps.
+ *
+ * [detect] gets the time analysis of the frame started. Passing it to [onResultShown] once the
+ * result is on screen gives the latency from analyzer to overlay.
+ */
+class AnalysisScheduler(
+    val targetRate: Int = DEFAULT_TARGET_RATE,
+    private val detect: (image: ImageProxy, startNanos: Long) -> Unit
+) : ImageAnalysis.Analyzer {
+    val executor: ExecutorService = Executors.newSingleThreadExecutor()
+
+    private val throttled = AtomicLong()
+    private val skipped = AtomicLong()
+    private val processed = AtomicLong()
+    private val totalDetectionNanos = AtomicLong()
+    private val lastDetectionNanos = AtomicLong()
+    private val shown = AtomicLong()
+    private val totalLatencyNanos = AtomicLong()
+    private val lastLatencyNanos = AtomicLong()
+    private val minIntervalNanos = intervalNanos(targetRate)
+    private var lastStartNanos = 0L
+    private var lastTimestamp = 0L
+    private var frameIntervalNanos = Long.MAX_VALUE
+
+    val throttledFrames: Long
+        get() = throttled.get()
+
+    val skippedFrames: Long
+        get() = skipped.get()
+
+    val processedFrames: Long
+        get() = processed.get()
+
+    /** time spent in [detect] for the last frame, not counting the wait for the analyzer */
+    val lastDetectionMillis: Double
+        get() = lastDetectionNanos.get() / NANOS_PER_MILLI
+
+    val averageDetectionMillis: Double
+        get() = processed.get().let { count ->
+            if (count == 0L) 0.0 else totalDetectionNanos.get() / NANOS_PER_MILLI / count
+        }
+
+    /** time from the analyzer receiving the last shown frame to its result being drawn */
+    val lastLatencyMillis: Double
+        get() = lastLatencyNanos.get() / NANOS_PER_MILLI
+
+    val averageLatencyMillis: Double
+        get() = shown.get().let { count ->
+            if (count == 0L) 0.0 else totalLatencyNanos.get() / NANOS_PER_MILLI / count
+        }
+
+    override fun analyze(image: ImageProxy) {
+        countSkipped(image.imageInfo.timestamp)
+        val start = SystemClock.elapsedRealtimeNanos()
+        if (start - lastStartNanos < minIntervalNanos) {
+            throttled.incrementAndGet()
+            image.close()
+            return
+        }
+        lastStartNanos = start
+        try {
+            detect(image, start)
+        } finally {
+            image.close()
+            val duration = SystemClock.elapsedRealtimeNanos() - start
+            lastDetectionNanos.set(duration)
+            totalDetectionNanos.addAndGet(duration)
+            processed.incrementAndGet()
+        }
+    }
+
+    /**
+     * Records that the result of the frame whose analysis started at [startNanos] reached the
+     * screen. Safe to call from any thread.
+     */
+    fun onResultShown(startNanos: Long) {
+        val latency = SystemClock.elapsedRealtimeNanos() - startNanos
+        lastLatencyNanos.set(latency)
+        totalLatencyNanos.addAndGet(latency)
+        shown.incrementAndGet()
+    }
+
+    /**
+     * The shortest gap seen between two frames is taken as the camera's frame interval; a
+     * longer gap means the frames in between were discarded.
+     */
+    private fun countSkipped(timestamp: Long) {
+        val gap = timestamp - lastTimestamp
+        if (lastTimestamp != 0L && gap > 0) {
+            frameIntervalNanos = minOf(frameIntervalNanos, gap)
+            val missing = (gap + frameIntervalNanos / 2) / frameIntervalNanos - 1
+            if (missing > 0) skipped.addAndGet(missing)
+        }
+        lastTimestamp = timestamp
+    }
+
+    /**
+     * Stops accepting frames. [onTerminated] runs on the analysis thread after the detection in
+     * flight, if any, so it is safe to release the buffers used by [detect] from there.
+     */
+    fun shutdown(onTerminated: () -> Unit) {
+        executor.execute(onTerminated)
+        executor.shutdown()
+    }
+
+    companion object {
+        const val DEFAULT_TARGET_RATE = 15
+        private const val NANOS_PER_MILLI = 1_000_000.0
+
+        private fun intervalNanos(rate: Int): Long {
+            return if (rate <= 0) 0L else TimeUnit.SECONDS.toNanos(1) / rate
+        }
+    }
+}
@@ -17,31 +17,137 @@
  */
 package com.wonderscan.android.utils
 
+import org.opencv.core.Core
+import org.opencv.core.CvType
 import org.opencv.core.Mat
+import kotlin.math.pow
+import kotlin.math.roundToInt
 
-class BrightnessAndContrastController(var brightness: Double, var contrast: Double) {
-    var mat: Mat? = null
+/**
+ * Tone adjustments of a page: levels with gamma, then contrast and brightness, then curves.
+ * They only depend on a pixel's value, so all of them are compiled into one 256 entry lookup
+ * table per channel and applied in a single pass with Core.LUT, however many are in use.
+ */
+class BrightnessAndContrastController(brightness: Double, contrast: Double) {
+
+    /**
+     * A tone curve through [points], pairs of input and output values between 0 and 255,
+     * interpolated linearly and flat beyond the first and last point.
+     */
+    class Curve(points: List<Pair<Int, Int>>) {
+        private val points = points.sortedBy { it.first }
 
-    fun setBrightness(sourceMat: Mat, value: Double): Mat {
-        brightness = value
-        process(sourceMat).let {
-            mat = it
-            return it
+        fun map(value: Double): Double {
+            if (points.isEmpty()) return value
+            val first = points.first()
+            if (value <= first.first) return first.second.toDouble()
+            for (i in 1 until points.size) {
+                val (x0, y0) = points[i - 1]
+                val (x1, y1) = points[i]
+                if (value <= x1) return y0 + (y1 - y0) * (value - x0) / (x1 - x0)
+            }
+            return points.last().second.toDouble()
         }
     }
 
-    fun setContrast(sourceMat: Mat, value: Double): Mat {
-        contrast = value
-        process(sourceMat).let {
-            mat = it
-            return it
+    var brightness = brightness
+        set(value) {
+            field = value
+            invalidate()
+        }
+    var contrast = contrast
+        set(value) {
+            field = value
+            invalidate()
+        }
+    var gamma = 1.0
+        set(value) {
+            field = value
+            invalidate()
+        }
+
+    /** input levels mapped to black and white */
+    var blackPoint = 0
+        set(value) {
+            field = value
+            invalidate()
+        }
+    var whitePoint = 255
+        set(value) {
+            field = value
+            invalidate()
+        }
+
+    var curve: Curve? = null
+        set(value) {
+            field = value
+            invalidate()
+        }
+
+    /** curves of single channels, in the channel order of the page's Mat */
+    var channelCurves: List<Curve?> = emptyList()
+        set(value) {
+            field = value
+            invalidate()
+        }
+
+    private var lut: Mat? = null
+
+    val isIdentity: Boolean
+        get() = brightness == 0.0 && contrast == 1.0 && gamma == 1.0 &&
+                blackPoint == 0 && whitePoint == 255 &&
+                curve == null && channelCurves.all { it == null }
+
+    fun copy(): BrightnessAndContrastController {
+        return BrightnessAndContrastController(brightness, contrast).also {
+            it.gamma = gamma
+            it.blackPoint = blackPoint
+            it.whitePoint = whitePoint
+            it.curve = curve
+            it.channelCurves = channelCurves
+        }
+    }
+
+    /**
+     * Writes [source] with the adjustments applied to [output], which is reallocated only when
+     * its size or type does not match.
+     */
+    fun process(source: Mat, output: Mat) {
+        Core.LUT(source, lutFor(source.channels()), output)
+    }
+
+    private fun invalidate() {
+        lut?.release()
+        lut = null
+    }
+
+    private fun lutFor(channels: Int): Mat {
+        val lutChannels = if (channels > 1 && channelCurves.any { it != null }) channels else 1
+        lut?.let { if (it.channels() == lutChannels) return it }
+        lut?.release()
+        val table = ByteArray(256 * lutChannels)
+        for (value in 0..255) {
+            val adjusted = adjust(value)
+            for (channel in 0 until lutChannels) {
+                val mapped = channelCurves.getOrNull(channel)?.map(adjusted) ?: adjusted
+                table[value * lutChannels + channel] = mapped.roundToInt().coerceIn(0, 255).toByte()
+            }
+        }
+        return Mat(1, 256, CvType.CV_8UC(lutChannels)).also {
+            it.put(0, 0, table)
+            lut = it
         }
     }
 
-    private fun process(sourceMat: Mat): Mat {
-        val mat = Mat()
-        sourceMat.copyTo(mat)
-        mat.convertTo(mat, -1, contrast, brightness)
-        return mat
+    /**
+     * The value [value] is mapped to by everything but the channel curves. Contrast and
+     * brightness saturate like Mat.convertTo, which they replace.
+     */
+    private fun adjust(value: Int): Double {
+        val range = maxOf(whitePoint - blackPoint, 1)
+        val level = ((value - blackPoint) / range.toDouble()).coerceIn(0.0, 1.0)
+        val leveled = 255 * level.pow(1 / gamma)
+        val toned = (leveled * contrast + brightness).roundToInt().coerceIn(0, 255).toDouble()
+        return curve?.map(toned) ?: toned
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.utils
+
+import kotlinx.coroutines.channels.Channel
+
+/**
+ * Hands the corners found on the analysis thread to the main thread without allocating per
+ * frame. Only the latest result is kept: one that is published before the previous one was
+ * taken replaces it.
+ */
+class CornerExchange {
+    private val corners = DoubleArray(8)
+    private val taken = DoubleArray(8)
+    private var found = false
+    private var startNanos = 0L
+    private val updates = Channel<Unit>(Channel.CONFLATED)
+
+    /**
+     * Publishes the corners of the frame whose analysis started at [startNanos], null if no
+     * page was found in it.
+     */
+    fun publish(values: DoubleArray?, startNanos: Long) {
+        synchronized(this) {
+            found = values != null
+            values?.copyInto(corners)
+            this.startNanos = startNanos
+        }
+        updates.trySend(Unit)
+    }
+
+    /**
+     * Calls [block] with every result taken, until the calling coroutine is cancelled. The
+     * corners array is reused, [block] must not keep it.
+     */
+    suspend fun collect(block: (corners: DoubleArray?, startNanos: Long) -> Unit): Nothing {
+        while (true) {
+            updates.receive()
+            val found: Boolean
+            val startNanos: Long
+            synchronized(this) {
+                corners.copyInto(taken)
+                found = this.found
+                startNanos = this.startNanos
+            }
+            block(if (found) taken else null, startNanos)
+        }
+    }
+}
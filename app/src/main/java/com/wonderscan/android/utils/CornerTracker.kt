@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.utils
+
+import org.opencv.core.Mat
+import org.opencv.core.MatOfByte
+import org.opencv.core.MatOfFloat
+import org.opencv.core.MatOfPoint2f
+import org.opencv.core.Size
+import org.opencv.video.Video
+import kotlin.math.abs
+
+/**
+ * Follows the four corners of a detected page from one analysis frame to the next with
+ * pyramidal Lucas-Kanade optical flow, which only looks at small windows around each corner.
+ * Tracking stops, and the caller falls back to full detection, as soon as a corner is lost,
+ * the flow error grows too large, the quadrilateral stops being a plausible page, or
+ * [MAX_TRACKED_FRAMES] frames have been tracked since the last full detection.
+ */
+class CornerTracker {
+    private val previous = Mat()
+    private val corners = MatOfPoint2f()
+    private val next = MatOfPoint2f()
+    private val status = MatOfByte()
+    private val error = MatOfFloat()
+    private val statusValues = ByteArray(CORNERS)
+    private val errorValues = FloatArray(CORNERS)
+    private val pointValues = FloatArray(CORNERS * 2)
+    private var trackedFrames = 0
+
+    var isTracking = false
+        private set
+
+    fun start(quad: MatOfPoint2f) {
+        quad.copyTo(corners)
+        trackedFrames = 0
+        isTracking = true
+    }
+
+    fun stop() {
+        isTracking = false
+    }
+
+    /**
+     * Returns the corners moved onto [frame], or null if they could not be tracked reliably.
+     * [frame] has to be the same single channel working image that is passed to [update].
+     */
+    fun track(frame: Mat, minArea: Double): MatOfPoint2f? {
+        if (!isTracking || trackedFrames >= MAX_TRACKED_FRAMES ||
+            previous.rows() != frame.rows() || previous.cols() != frame.cols()
+        ) {
+            stop()
+            return null
+        }
+        Video.calcOpticalFlowPyrLK(previous, frame, corners, next, status, error, WINDOW, LEVELS)
+        if (!isConfident(minArea)) {
+            stop()
+            return null
+        }
+        next.copyTo(corners)
+        trackedFrames++
+        return corners
+    }
+
+    fun update(frame: Mat) {
+        frame.copyTo(previous)
+    }
+
+    fun release() {
+        stop()
+        previous.release()
+        corners.release()
+        next.release()
+        status.release()
+        error.release()
+    }
+
+    private fun isConfident(minArea: Double): Boolean {
+        if (next.rows() != CORNERS) return false
+        status.get(0, 0, statusValues)
+        error.get(0, 0, errorValues)
+        for (i in 0 until CORNERS) {
+            if (statusValues[i].toInt() == 0 || errorValues[i] > MAX_ERROR) return false
+        }
+        next.get(0, 0, pointValues)
+        return isConvex(pointValues) && area(pointValues) >= minArea
+    }
+
+    private fun isConvex(points: FloatArray): Boolean {
+        var sign = 0
+        for (i in 0 until CORNERS) {
+            val a = i * 2
+            val b = (i + 1) % CORNERS * 2
+            val c = (i + 2) % CORNERS * 2
+            val cross = (points[b] - points[a]) * (points[c + 1] - points[b + 1]) -
+                    (points[b + 1] - points[a + 1]) * (points[c] - points[b])
+            val current = if (cross > 0) 1 else if (cross < 0) -1 else 0
+            if (current == 0) return false
+            if (sign == 0) sign = current else if (sign != current) return false
+        }
+        return true
+    }
+
+    private fun area(points: FloatArray): Double {
+        var sum = 0.0
+        for (i in 0 until CORNERS) {
+            val a = i * 2
+            val b = (i + 1) % CORNERS * 2
+            sum += points[a] * points[b + 1] - points[b] * points[a + 1]
+        }
+        return abs(sum) / 2
+    }
+
+    companion object {
+        private const val CORNERS = 4
+        private const val LEVELS = 2
+        private const val MAX_ERROR = 20f
+        private const val MAX_TRACKED_FRAMES = 30
+        private val WINDOW = Size(21.0, 21.0)
+    }
+}
@@ -22,13 +22,21 @@ import android.content.Context
 import androidx.room.Database
 import androidx.room.Room
 import androidx.room.RoomDatabase
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
 import com.wonderscan.android.dao.DocumentDao
 import com.wonderscan.android.dao.FrameDao
 import com.wonderscan.android.data.Document
+import com.wonderscan.android.data.DocumentFts
 import com.wonderscan.android.data.Frame
+import com.wonderscan.android.data.FrameFts
 
 
-@Database(entities = [Document::class, Frame::class], version = 5, exportSchema = false)
+@Database(
+    entities = [Document::class, Frame::class, DocumentFts::class, FrameFts::class],
+    version = 10,
+    exportSchema = false
+)
 abstract class MyDatabase : RoomDatabase() {
     abstract fun frameDao(): FrameDao
     abstract fun documentDao(): DocumentDao
@@ -36,6 +44,71 @@ abstract class MyDatabase : RoomDatabase() {
     companion object {
         private var INSTANCE: MyDatabase? = null
 
+        private val MIGRATION_5_6 = object : Migration(5, 6) {
+            override fun migrate(database: SupportSQLiteDatabase) {
+                database.execSQL("ALTER TABLE Frame ADD COLUMN previewUri TEXT")
+            }
+        }
+
+        private val MIGRATION_6_7 = object : Migration(6, 7) {
+            override fun migrate(database: SupportSQLiteDatabase) {
+                database.execSQL("ALTER TABLE Frame ADD COLUMN format TEXT")
+            }
+        }
+
+        private val MIGRATION_7_8 = object : Migration(7, 8) {
+            override fun migrate(database: SupportSQLiteDatabase) {
+                database.execSQL("ALTER TABLE Frame ADD COLUMN ocrHash TEXT")
+            }
+        }
+
+        private val MIGRATION_8_9 = object : Migration(8, 9) {
+            override fun migrate(database: SupportSQLiteDatabase) {
+                createFtsTable(database, "DocumentFts", "Document", listOf("name"))
+                createFtsTable(database, "FrameFts", "Frame", listOf("note", "ocr"))
+            }
+        }
+
+        private val MIGRATION_9_10 = object : Migration(9, 10) {
+            override fun migrate(database: SupportSQLiteDatabase) {
+                database.execSQL("ALTER TABLE Frame ADD COLUMN version INTEGER NOT NULL DEFAULT 0")
+            }
+        }
+
+        /**
+         * Creates an external content FTS4 table and the triggers Room would have created for
+         * it on a fresh install, then indexes the existing rows.
+         */
+        private fun createFtsTable(
+            database: SupportSQLiteDatabase,
+            table: String,
+            contentTable: String,
+            columns: List<String>
+        ) {
+            val columnList = columns.joinToString(", ") { "`$it`" }
+            val newValues = columns.joinToString(", ") { "NEW.`$it`" }
+            database.execSQL(
+                "CREATE VIRTUAL TABLE IF NOT EXISTS `$table` USING FTS4(" +
+                        columns.joinToString(", ") { "`$it` TEXT" } +
+                        ", tokenize=unicode61, content=`$contentTable`)"
+            )
+            for (event in listOf("UPDATE", "DELETE")) {
+                database.execSQL(
+                    "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_${table}_BEFORE_$event " +
+                            "BEFORE $event ON `$contentTable` BEGIN DELETE FROM `$table` " +
+                            "WHERE `docid`=OLD.`rowid`; END"
+                )
+            }
+            for (event in listOf("UPDATE", "INSERT")) {
+                database.execSQL(
+                    "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_${table}_AFTER_$event " +
+                            "AFTER $event ON `$contentTable` BEGIN INSERT INTO `$table`" +
+                            "(`docid`, $columnList) VALUES (NEW.`rowid`, $newValues); END"
+                )
+            }
+            database.execSQL("INSERT INTO `$table`(`$table`) VALUES('rebuild')")
+        }
+
         fun geDatabase(context: Context): MyDatabase? {
             synchronized(Database::class) {
                 if (INSTANCE == null) {
@@ -43,7 +116,12 @@ abstract class MyDatabase : RoomDatabase() {
                         context.applicationContext,
                         MyDatabase::class.java,
                         "database"
-                    ).fallbackToDestructiveMigration().build()
+                    ).addMigrations(
+                        MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9,
+                        MIGRATION_9_10
+                    )
+                        .fallbackToDestructiveMigration()
+                        .build()
                 }
             }
             return INSTANCE
@@ -18,93 +18,121 @@
 package com.wonderscan.android.utils
 
 import android.graphics.Bitmap
-import android.util.Log
-import android.util.Pair
+import androidx.camera.core.ImageProxy
 import com.wonderscan.android.data.BoundingRect
 import com.wonderscan.android.utils.Utils.getDeviceWidth
 import org.opencv.android.Utils
+import org.opencv.core.Core
 import org.opencv.core.Mat
-import org.opencv.core.MatOfPoint
-import org.opencv.core.MatOfPoint2f
 import org.opencv.core.Size
 import org.opencv.imgproc.Imgproc
-import java.util.*
 
 class DetectBox {
 
     companion object {
-        private const val MAX_WIDTH = 500.0
+        private val detector = DocumentDetector.LIVE
 
         fun findCorners(
             image: Bitmap,
             angle: Int
         ): BoundingRect? {
-            val sourceMat = bitmapToMat(image, angle)
-            return detect(
-                sourceMat,
-                (getDeviceWidth() / sourceMat.width().toFloat()).toDouble()
-            )
-        }
-
-        private fun bitmapToMat(bitmap: Bitmap, angle: Int): Mat {
-            val mat = Mat()
-            Utils.bitmapToMat(bitmap, mat)
-            resizeMat(mat)
-            com.wonderscan.android.utils.Utils.rotateMat(mat, angle)
-            return mat
-        }
-
-        private fun resizeMat(mat: Mat) {
-            Imgproc.resize(
-                mat,
-                mat,
-                Size(MAX_WIDTH, mat.height() * MAX_WIDTH / mat.width().toFloat())
-            )
+            FrameContext().let { context ->
+                val bRect = findCorners(image, angle, context)
+                context.release()
+                return bRect
+            }
         }
 
-        private fun detect(sourceMat: Mat, ratio: Double): BoundingRect? {
-            val mat = sourceMat.clone()
-            Imgproc.cvtColor(mat, mat, Imgproc.COLOR_BGR2GRAY)
-            Imgproc.GaussianBlur(mat, mat, Size(5.0, 5.0), 0.0)
-            Imgproc.Canny(mat, mat, 75.0, 200.0)
-            val points: MutableList<MatOfPoint> = ArrayList()
-            Imgproc.findContours(mat, points, Mat(), Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE)
-            val areas: MutableList<Pair<MatOfPoint, Double>> = ArrayList()
-            for (point in points) {
-                areas.add(Pair(point, Imgproc.contourArea(point)))
-            }
-            areas.sortWith { t1: Pair<MatOfPoint, Double>, t2: Pair<MatOfPoint, Double> ->
-                java.lang.Double.compare(
-                    t2.second,
-                    t1.second
+        /**
+         * Same as [findCorners] but reuses the buffers held by [context], so calling it once per
+         * analysis frame does not allocate new bitmaps or mats once the resolution is stable.
+         */
+        fun findCorners(
+            image: Bitmap,
+            angle: Int,
+            context: FrameContext
+        ): BoundingRect? {
+            synchronized(context) {
+                if (context.isReleased) return null
+                val mat = bitmapToMat(image, angle, context)
+                return detect(
+                    mat,
+                    (getDeviceWidth() / mat.width().toFloat()).toDouble(),
+                    context
                 )
             }
-            val maxArea = (mat.width() * (mat.height() / 8f)).toDouble()
-            if (areas.size == 0 || areas[0].second < maxArea) {
-                return null
-            }
-            for (area in areas) {
-                val matOfPoint2f = MatOfPoint2f(*area.first.toArray())
-                Imgproc.approxPolyDP(
-                    matOfPoint2f,
-                    matOfPoint2f,
-                    0.02 * Imgproc.arcLength(matOfPoint2f, true),
-                    true
+        }
+
+        /**
+         * Live scan fast path: runs detection directly on the luma plane of a YUV_420_888
+         * frame, which already is the grayscale image, instead of converting it to RGB first.
+         * Once a page has been found its corners are tracked from frame to frame, and the full
+         * contour search only runs again when tracking is lost. The corners are written to
+         * [corners] as for [BoundingRect.fromCorners], returns false if no page was found.
+         */
+        fun findCorners(
+            image: ImageProxy,
+            angle: Int,
+            context: FrameContext,
+            corners: DoubleArray
+        ): Boolean {
+            synchronized(context) {
+                if (context.isReleased) return false
+                val plane = image.planes[0]
+                val luma = context.copyLuma(
+                    plane.buffer, image.width, image.height, plane.rowStride
                 )
-                if (matOfPoint2f.height() == 4) {
-                    if (area.second > maxArea) {
-                        val bRect = BoundingRect()
-                        bRect.fromPoints(matOfPoint2f.toList(), ratio, ratio)
-                        mat.release()
-                        sourceMat.release()
-                        return bRect
+                resizeMat(luma, context.scaled, context.scaledSize)
+                val mat = rotateMat(context, angle)
+                val ratio = (getDeviceWidth() / mat.width().toFloat()).toDouble()
+                val tracked = context.tracker.track(mat, detector.minArea(mat))
+                context.tracker.update(mat)
+                val quad = when {
+                    tracked != null -> tracked
+                    detector.detectCurve(mat, context) -> context.curve.also {
+                        context.tracker.start(it)
                     }
+                    else -> return false
                 }
+                val values = context.cornerValues
+                quad.get(0, 0, values)
+                for (i in values.indices) corners[i] = values[i] * ratio
+                return true
             }
-            mat.release()
-            sourceMat.release()
-            return null
         }
+
+        private fun bitmapToMat(bitmap: Bitmap, angle: Int, context: FrameContext): Mat {
+            Utils.bitmapToMat(bitmap, context.rgba)
+            Imgproc.cvtColor(context.rgba, context.gray, Imgproc.COLOR_RGBA2GRAY)
+            resizeMat(context.gray, context.scaled, context.scaledSize)
+            return rotateMat(context, angle)
+        }
+
+        private fun rotateMat(context: FrameContext, angle: Int): Mat {
+            return when (angle) {
+                90 -> context.rotated.also {
+                    Core.rotate(context.scaled, it, Core.ROTATE_90_CLOCKWISE)
+                }
+                180 -> context.rotated.also {
+                    Core.rotate(context.scaled, it, Core.ROTATE_180)
+                }
+                270, -90 -> context.rotated.also {
+                    Core.rotate(context.scaled, it, Core.ROTATE_90_COUNTERCLOCKWISE)
+                }
+                else -> context.scaled
+            }
+        }
+
+        private fun resizeMat(src: Mat, dst: Mat, size: Size) {
+            Imgproc.resize(src, dst, detector.workingSize(src.width(), src.height(), size))
+        }
+
+        private fun detect(mat: Mat, ratio: Double, context: FrameContext): BoundingRect? {
+            return detector.detect(mat, ratio, context)?.also {
+                context.tracker.start(context.curve)
+            }
+        }
+
     }
 
-}
\ No newline at end of file
+}
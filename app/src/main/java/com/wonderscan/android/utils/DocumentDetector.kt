@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.utils
+
+import com.wonderscan.android.data.BoundingRect
+import org.opencv.core.CvType
+import org.opencv.core.Mat
+import org.opencv.core.Size
+import org.opencv.imgproc.Imgproc
+
+/**
+ * Contour based page detector shared by the live scan view and image import.
+ *
+ * Detection always runs on a single channel image scaled to [workingWidth]; [findCorners]
+ * takes care of downscaling full resolution photos and maps the corners back, so the cost of
+ * detecting a page is independent of the camera resolution.
+ */
+class DocumentDetector(
+    val workingWidth: Double = 500.0,
+    blurSize: Double = 5.0,
+    private val cannyThreshold1: Double = 75.0,
+    private val cannyThreshold2: Double = 200.0,
+    private val minAreaFraction: Double = 1 / 8.0,
+    private val approxEpsilon: Double = 0.02,
+    private val maxCandidates: Int = 5,
+    private val retrievalMode: Int = Imgproc.RETR_EXTERNAL
+) {
+    private val blurKernel = Size(blurSize, blurSize)
+
+    fun minArea(mat: Mat): Double {
+        return mat.width() * mat.height() * minAreaFraction
+    }
+
+    /**
+     * Sets [size] to the working resolution for an image of [width] x [height] pixels.
+     */
+    fun workingSize(width: Int, height: Int, size: Size): Size {
+        size.width = workingWidth
+        size.height = height * workingWidth / width
+        return size
+    }
+
+    /**
+     * Finds the page in a full resolution BGR or RGB image. The returned corners are in image
+     * coordinates multiplied by [ratio], the same convention [DetectBox] uses.
+     */
+    fun findCorners(sourceMat: Mat, ratio: Double): BoundingRect? {
+        val context = FrameContext()
+        try {
+            val gray = if (sourceMat.channels() == 1) sourceMat else context.gray.also {
+                Imgproc.cvtColor(sourceMat, it, Imgproc.COLOR_BGR2GRAY)
+            }
+            val scale = if (sourceMat.width() > workingWidth) {
+                workingWidth / sourceMat.width()
+            } else {
+                1.0
+            }
+            context.scaledSize.width = sourceMat.width() * scale
+            context.scaledSize.height = sourceMat.height() * scale
+            Imgproc.resize(gray, context.scaled, context.scaledSize, 0.0, 0.0, Imgproc.INTER_AREA)
+            return detect(context.scaled, ratio / scale, context)
+        } finally {
+            context.release()
+        }
+    }
+
+    /**
+     * Runs the contour search on [mat], a single channel image at working resolution. [mat] is
+     * blurred in place. On success the quadrilateral, in [mat] coordinates, is left in
+     * [FrameContext.curve] and returned as a [BoundingRect] scaled by [ratio].
+     */
+    fun detect(mat: Mat, ratio: Double, context: FrameContext): BoundingRect? {
+        if (!detectCurve(mat, context)) return null
+        return BoundingRect().apply { fromPoints(context.curve.toList(), ratio, ratio) }
+    }
+
+    /**
+     * Same as [detect] but only leaves the quadrilateral in [FrameContext.curve], returns
+     * false if none was found.
+     */
+    fun detectCurve(mat: Mat, context: FrameContext): Boolean {
+        Imgproc.GaussianBlur(mat, mat, blurKernel, 0.0)
+        Imgproc.Canny(mat, context.edges, cannyThreshold1, cannyThreshold2)
+        context.releaseContours()
+        Imgproc.findContours(
+            context.edges,
+            context.contours,
+            context.hierarchy,
+            retrievalMode,
+            Imgproc.CHAIN_APPROX_SIMPLE
+        )
+        val count = selectCandidates(context, minArea(mat))
+        var found = false
+        val curve = context.curve
+        for (i in 0 until count) {
+            context.contours[context.candidateIndices[i]].convertTo(curve, CvType.CV_32FC2)
+            Imgproc.approxPolyDP(
+                curve,
+                curve,
+                approxEpsilon * Imgproc.arcLength(curve, true),
+                true
+            )
+            if (curve.height() == 4) {
+                found = true
+                break
+            }
+        }
+        context.releaseContours()
+        return found
+    }
+
+    /**
+     * Keeps the indices of the [maxCandidates] largest contours above [minArea] in
+     * [FrameContext.candidateIndices], largest first, and returns how many there are. Every
+     * other contour is released as soon as it is rejected.
+     */
+    private fun selectCandidates(context: FrameContext, minArea: Double): Int {
+        context.ensureCandidates(maxCandidates)
+        val areas = context.candidateAreas
+        val indices = context.candidateIndices
+        val contours = context.contours
+        var count = 0
+        for (i in contours.indices) {
+            val contour = contours[i]
+            val area = Imgproc.contourArea(contour)
+            if (area <= minArea || (count == maxCandidates && area <= areas[count - 1])) {
+                contour.release()
+                continue
+            }
+            var j = if (count < maxCandidates) {
+                count++
+            } else {
+                contours[indices[count - 1]].release()
+                count - 1
+            }
+            while (j > 0 && areas[j - 1] < area) {
+                areas[j] = areas[j - 1]
+                indices[j] = indices[j - 1]
+                j--
+            }
+            areas[j] = area
+            indices[j] = i
+        }
+        return count
+    }
+
+    companion object {
+        /** Tuned for the live preview, which is analysed many times per second. */
+        val LIVE = DocumentDetector()
+
+        /** Tuned for imported photos and captures, where one detection per image is made. */
+        val IMPORT = DocumentDetector(
+            workingWidth = 800.0,
+            maxCandidates = 10,
+            retrievalMode = Imgproc.RETR_LIST
+        )
+    }
+}
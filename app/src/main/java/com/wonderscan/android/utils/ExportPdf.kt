@@ -17,45 +17,204 @@
  */
 package com.wonderscan.android.utils
 
-import android.graphics.Bitmap
 import android.graphics.BitmapFactory
-import android.graphics.Color
-import android.graphics.Paint
-import android.graphics.pdf.PdfDocument
+import com.wonderscan.android.data.ExportProfile
 import com.wonderscan.android.data.Frame
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.withContext
+import org.opencv.core.Size
+import org.opencv.imgcodecs.Imgcodecs
+import org.opencv.imgproc.Imgproc
+import java.io.OutputStream
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.ceil
+import kotlin.math.min
 
 class ExportPdf {
 
+    /**
+     * Where a page image is drawn on its PDF page, in points, and the pixel size it needs at
+     * the profile's resolution.
+     */
+    private class Layout(
+        val pageWidth: Float,
+        val pageHeight: Float,
+        val x: Float,
+        val y: Float,
+        val width: Float,
+        val height: Float,
+        val pixelWidth: Int,
+        val pixelHeight: Int
+    )
+
+    private class Page(val image: PdfImage, val layout: Layout)
+
     companion object {
+        private const val POINTS_PER_INCH = 72f
+
+        // pages this close to the target resolution are embedded without resampling
+        private const val RESAMPLE_TOLERANCE = 1.1
+
+        /**
+         * Streams [frames] into [output], laid out and resampled as described by [profile].
+         * Page images are prepared on up to [parallelism] cores and written in document order
+         * through a reorder buffer that holds at most twice that many pages. Resampled pages
+         * are looked up in and added to [cache]. The stream is closed when the export is done.
+         * Pages that are still being processed are exported from their cropped or original
+         * image, so the page count always matches the document.
+         */
+        suspend fun exportPdf(
+            frames: List<Frame>,
+            output: OutputStream,
+            profile: ExportProfile = ExportProfile(),
+            parallelism: Int = Runtime.getRuntime().availableProcessors(),
+            cache: PdfPageCache? = null
+        ) = coroutineScope {
+            val paths = frames.map { it.editedUri ?: it.croppedUri ?: it.uri }
+            val workers = parallelism.coerceIn(1, maxOf(1, paths.size))
+            val permits = Semaphore(workers * 2)
+            val prepared = Channel<Pair<Int, Page?>>(Channel.UNLIMITED)
+            val next = AtomicInteger()
+            repeat(workers) {
+                launch(Dispatchers.Default) {
+                    while (true) {
+                        permits.acquire()
+                        val index = next.getAndIncrement()
+                        if (index >= paths.size) {
+                            permits.release()
+                            break
+                        }
+                        prepared.send(Pair(index, preparePage(paths[index], profile, cache)))
+                    }
+                }
+            }
+
+            withContext(Dispatchers.IO) {
+                PdfWriter(output).use { writer ->
+                    val pending = HashMap<Int, Page?>()
+                    var written = 0
+                    while (written < paths.size) {
+                        val (index, page) = prepared.receive()
+                        pending[index] = page
+                        while (pending.containsKey(written)) {
+                            pending.remove(written)?.let { writePage(writer, it) }
+                            permits.release()
+                            written++
+                        }
+                    }
+                }
+                cache?.trim()
+            }
+        }
+
+        private fun preparePage(
+            path: String,
+            profile: ExportProfile,
+            cache: PdfPageCache?
+        ): Page? {
+            val direct = PdfImage.probe(path)
+            val width: Int
+            val height: Int
+            if (direct != null) {
+                width = direct.width
+                height = direct.height
+            } else {
+                val options = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+                BitmapFactory.decodeFile(path, options)
+                width = options.outWidth
+                height = options.outHeight
+            }
+            if (width <= 0 || height <= 0) return null
+
+            val layout = layout(width, height, profile)
+            if (direct != null && canEmbed(direct, layout, profile)) return Page(direct, layout)
 
-        private fun createPage(pdfDocument: PdfDocument, bitmap: Bitmap, width: Int, height: Int) {
-            val pageInfo = PdfDocument.PageInfo.Builder(width, height, 0).create()
-            val page = pdfDocument.startPage(pageInfo)
-            val canvas = page.canvas
-            val paint = Paint()
-            paint.color = Color.WHITE
-            canvas.drawPaint(paint)
-            canvas.drawBitmap(
-                bitmap,
-                (width - bitmap.width) / 2f,
-                (height - bitmap.height) / 2f,
-                null
+            val key = cache?.key(path, profile)
+            if (cache != null && key != null) {
+                val cached = cache.get(key)
+                if (cached != null) return Page(cached, layout)
+            }
+            val image = resample(path, width, layout, profile) ?: return null
+            return Page(if (cache != null && key != null) cache.put(key, image) else image, layout)
+        }
+
+        private fun writePage(writer: PdfWriter, page: Page) {
+            val layout = page.layout
+            writer.addPage(
+                page.image, layout.pageWidth, layout.pageHeight,
+                layout.x, layout.y, layout.width, layout.height
+            )
+        }
+
+        private fun layout(width: Int, height: Int, profile: ExportProfile): Layout {
+            val size = profile.pageSize
+            val isLandscape = width > height
+            var pageWidth = if (isLandscape) size.height else size.width
+            var pageHeight = if (isLandscape) size.width else size.height
+            val scale = min(pageWidth / width, pageHeight / height)
+            val drawWidth = width * scale
+            val drawHeight = height * scale
+            if (size == ExportProfile.PageSize.ORIGINAL) {
+                pageWidth = drawWidth
+                pageHeight = drawHeight
+            }
+            return Layout(
+                pageWidth,
+                pageHeight,
+                (pageWidth - drawWidth) / 2,
+                (pageHeight - drawHeight) / 2,
+                drawWidth,
+                drawHeight,
+                min(width, ceil(drawWidth / POINTS_PER_INCH * profile.dpi).toInt()),
+                min(height, ceil(drawHeight / POINTS_PER_INCH * profile.dpi).toInt())
             )
-            pdfDocument.finishPage(page)
         }
 
-        fun exportPdf(frames: List<Frame>): PdfDocument {
-            var bitmap: Bitmap?
-            val pdf = PdfDocument()
-            var width = 0
-            var height = 0
-            for (frame in frames) {
-                bitmap = BitmapFactory.decodeFile(frame.editedUri)
-                if (bitmap.width > width) width = bitmap.width
-                if (bitmap.height > height) height = bitmap.height
-                createPage(pdf, bitmap, width, height)
-            }
-            return pdf
+        private fun canEmbed(image: PdfImage, layout: Layout, profile: ExportProfile): Boolean {
+            if (image.width > layout.pixelWidth * RESAMPLE_TOLERANCE) return false
+            return when (profile.colorMode) {
+                ExportProfile.ColorMode.COLOR -> true
+                ExportProfile.ColorMode.GRAY -> image.colorSpace == "/DeviceGray"
+                ExportProfile.ColorMode.BILEVEL ->
+                    image.colorSpace == "/DeviceGray" && image.bitsPerComponent == 1
+            }
+        }
+
+        private fun resample(
+            path: String,
+            width: Int,
+            layout: Layout,
+            profile: ExportProfile
+        ): PdfImage? {
+            val isColor = profile.colorMode == ExportProfile.ColorMode.COLOR
+            val flags = if (isColor) {
+                when {
+                    width / 8 >= layout.pixelWidth -> Imgcodecs.IMREAD_REDUCED_COLOR_8
+                    width / 4 >= layout.pixelWidth -> Imgcodecs.IMREAD_REDUCED_COLOR_4
+                    width / 2 >= layout.pixelWidth -> Imgcodecs.IMREAD_REDUCED_COLOR_2
+                    else -> Imgcodecs.IMREAD_COLOR
+                }
+            } else {
+                when {
+                    width / 8 >= layout.pixelWidth -> Imgcodecs.IMREAD_REDUCED_GRAYSCALE_8
+                    width / 4 >= layout.pixelWidth -> Imgcodecs.IMREAD_REDUCED_GRAYSCALE_4
+                    width / 2 >= layout.pixelWidth -> Imgcodecs.IMREAD_REDUCED_GRAYSCALE_2
+                    else -> Imgcodecs.IMREAD_GRAYSCALE
+                }
+            }
+            val mat = Imgcodecs.imread(path, flags)
+            if (mat.empty()) return null
+            if (mat.cols() > layout.pixelWidth) {
+                val size = Size(layout.pixelWidth.toDouble(), layout.pixelHeight.toDouble())
+                Imgproc.resize(mat, mat, size, 0.0, 0.0, Imgproc.INTER_AREA)
+            }
+            val image = PdfImage.fromMat(mat, profile.colorMode, profile.quality)
+            mat.release()
+            return image
         }
     }
-}
\ No newline at end of file
+}
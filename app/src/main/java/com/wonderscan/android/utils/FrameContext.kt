@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.utils
+
+import org.opencv.core.CvType
+import org.opencv.core.Mat
+import org.opencv.core.MatOfPoint
+import org.opencv.core.MatOfPoint2f
+import org.opencv.core.Size
+import java.nio.ByteBuffer
+
+/**
+ * Holds the buffers used by the live edge detection loop so that they are allocated once per
+ * analysis resolution instead of once per frame. A context is owned by a single scan session
+ * and must be [release]d when the session ends.
+ */
+class FrameContext {
+    val rgba = Mat()
+    val luma = Mat()
+    val gray = Mat()
+    val scaled = Mat()
+    val rotated = Mat()
+    val edges = Mat()
+    val hierarchy = Mat()
+    val curve = MatOfPoint2f()
+    val contours: MutableList<MatOfPoint> = ArrayList()
+    var candidateAreas = DoubleArray(0)
+        private set
+    var candidateIndices = IntArray(0)
+        private set
+    val scaledSize = Size()
+    val cornerValues = FloatArray(8)
+    private var lumaBytes = ByteArray(0)
+    val tracker = CornerTracker()
+
+    var isReleased = false
+        private set
+
+    /**
+     * Copies the luma plane of a YUV_420_888 frame into [luma] and returns it. Rows in
+     * [buffer] are [rowStride] bytes apart, only the first [width] bytes of each are used.
+     * The copy goes through a byte array kept for the next frame, so nothing is allocated
+     * once the resolution is stable.
+     */
+    fun copyLuma(buffer: ByteBuffer, width: Int, height: Int, rowStride: Int): Mat {
+        if (lumaBytes.size != width * height) lumaBytes = ByteArray(width * height)
+        if (rowStride == width) {
+            buffer.position(0)
+            buffer.get(lumaBytes)
+        } else {
+            for (y in 0 until height) {
+                buffer.position(y * rowStride)
+                buffer.get(lumaBytes, y * width, width)
+            }
+        }
+        luma.create(height, width, CvType.CV_8UC1)
+        luma.put(0, 0, lumaBytes)
+        return luma
+    }
+
+    fun ensureCandidates(count: Int) {
+        if (candidateAreas.size < count) {
+            candidateAreas = DoubleArray(count)
+            candidateIndices = IntArray(count)
+        }
+    }
+
+    fun releaseContours() {
+        for (contour in contours) contour.release()
+        contours.clear()
+    }
+
+    @Synchronized
+    fun release() {
+        if (isReleased) return
+        isReleased = true
+        releaseContours()
+        rgba.release()
+        luma.release()
+        gray.release()
+        scaled.release()
+        rotated.release()
+        edges.release()
+        hierarchy.release()
+        curve.release()
+        tracker.release()
+    }
+}
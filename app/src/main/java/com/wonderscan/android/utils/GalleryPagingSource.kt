@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.utils
+
+import androidx.paging.PagingSource
+import androidx.paging.PagingState
+import com.wonderscan.android.data.GalleryImage
+import kotlinx.coroutines.flow.first
+
+/**
+ * Pages through one generation of the [GalleryRepository] snapshot. While the first scan is
+ * still running, a page past the images read so far waits for the next chunk instead of
+ * scanning the MediaStore itself. A new generation needs a new paging source.
+ */
+class GalleryPagingSource(
+    private val repository: GalleryRepository
+) : PagingSource<Int, GalleryImage>() {
+
+    val generation = repository.state.value.generation
+
+    override suspend fun load(params: LoadParams<Int>): LoadResult<Int, GalleryImage> {
+        val key = params.key ?: 0
+        // a prepend key is where the page ends, any other key is where it starts
+        val start = if (params is LoadParams.Prepend) maxOf(0, key - params.loadSize) else key
+        val end = if (params is LoadParams.Prepend) key else key + params.loadSize
+        val snapshot = repository.state.first {
+            it.generation != generation || it.isComplete || it.images.size >= end
+        }
+        val images = snapshot.images
+        val from = minOf(start, images.size)
+        val to = minOf(end, images.size)
+        return LoadResult.Page(
+            images.subList(from, to),
+            prevKey = if (from == 0) null else from,
+            nextKey = if (to < images.size || !snapshot.isComplete) to else null
+        )
+    }
+
+    override fun getRefreshKey(state: PagingState<Int, GalleryImage>): Int? {
+        val anchor = state.anchorPosition ?: return null
+        return maxOf(0, anchor - state.config.initialLoadSize / 2)
+    }
+}
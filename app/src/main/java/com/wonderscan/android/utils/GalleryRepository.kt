@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.utils
+
+import android.content.ContentResolver
+import android.content.Context
+import android.database.ContentObserver
+import android.database.Cursor
+import android.os.Build
+import android.os.Bundle
+import android.provider.MediaStore
+import com.wonderscan.android.data.GalleryImage
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.launch
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Keeps an in-memory snapshot of the device's images, newest first. The first scan runs on a
+ * background dispatcher and publishes the snapshot after every chunk, so the gallery can show
+ * the newest images while older ones are still being read. Afterwards a ContentObserver
+ * triggers incremental refreshes that only read the rows that were added or changed and the
+ * ids that still exist. Every refresh bumps the snapshot's generation, while chunks of the
+ * first scan keep it, so readers can tell a grown snapshot from a changed one.
+ */
+class GalleryRepository(context: Context) {
+
+    class Snapshot(
+        val images: List<GalleryImage>,
+        val isComplete: Boolean,
+        val generation: Int
+    )
+
+    private val context = context.applicationContext
+    private val contentResolver = context.contentResolver
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val started = AtomicBoolean()
+    private val changes = Channel<Unit>(Channel.CONFLATED)
+    private val mutableState = MutableStateFlow(Snapshot(emptyList(), false, 0))
+    val state: StateFlow<Snapshot> = mutableState
+
+    // MediaStore generation of every external volume as of the last refresh, Android 11+ only
+    private var volumeGenerations: Map<String, Long> = emptyMap()
+
+    private val observer = object : ContentObserver(null) {
+        override fun onChange(selfChange: Boolean) {
+            changes.trySend(Unit)
+        }
+    }
+
+    /**
+     * Starts the first scan and watching for changes. Calling it again does nothing.
+     */
+    fun start() {
+        if (!started.compareAndSet(false, true)) return
+        contentResolver.registerContentObserver(URI, true, observer)
+        scope.launch {
+            scan()
+            while (true) {
+                changes.receive()
+                // let bursts of notifications, e.g. from a camera burst, settle first
+                delay(REFRESH_DELAY_MILLIS)
+                changes.tryReceive()
+                refresh()
+            }
+        }
+    }
+
+    private fun scan() {
+        volumeGenerations = readGenerations()
+        val images = ArrayList<GalleryImage>()
+        var last: GalleryImage? = null
+        while (true) {
+            val chunk = if (last == null) {
+                query(null, null, CHUNK_SIZE)
+            } else {
+                val dateAdded = last.dateAdded.toString()
+                query(
+                    "$DATE_ADDED < ? OR ($DATE_ADDED = ? AND $ID < ?)",
+                    arrayOf(dateAdded, dateAdded, last.id.toString()),
+                    CHUNK_SIZE
+                )
+            }
+            images.addAll(chunk)
+            val isComplete = chunk.size < CHUNK_SIZE
+            mutableState.value = Snapshot(ArrayList(images), isComplete, 0)
+            if (isComplete) return
+            last = chunk.last()
+        }
+    }
+
+    private fun refresh() {
+        val generations = readGenerations()
+        if (generations.isNotEmpty() && generations == volumeGenerations) return
+        val current = mutableState.value
+        val changed = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R &&
+            volumeGenerations.isNotEmpty()
+        ) {
+            val since = volumeGenerations.values.minOrNull() ?: 0L
+            query("${MediaStore.MediaColumns.GENERATION_MODIFIED} > ?", arrayOf(since.toString()))
+        } else {
+            val newest = current.images.firstOrNull()?.dateAdded ?: 0L
+            query("$DATE_ADDED >= ?", arrayOf(newest.toString()))
+        }
+        val existing = queryIds()
+        volumeGenerations = generations
+
+        val images = LinkedHashMap<Long, GalleryImage>(existing.size * 2)
+        for (image in current.images) if (image.id in existing) images[image.id] = image
+        for (image in changed) images[image.id] = image
+        val sorted = images.values.sortedWith(
+            compareByDescending<GalleryImage> { it.dateAdded }.thenByDescending { it.id }
+        )
+        if (sorted == current.images) return
+        mutableState.value = Snapshot(sorted, true, current.generation + 1)
+    }
+
+    private fun readGenerations(): Map<String, Long> {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) return emptyMap()
+        return MediaStore.getExternalVolumeNames(context).associateWith {
+            MediaStore.getGeneration(context, it)
+        }
+    }
+
+    private fun queryIds(): HashSet<Long> {
+        val ids = HashSet<Long>()
+        contentResolver.query(URI, arrayOf(ID), null, null, null)?.use { cursor ->
+            val idColumn = cursor.getColumnIndexOrThrow(ID)
+            while (cursor.moveToNext()) ids.add(cursor.getLong(idColumn))
+        }
+        return ids
+    }
+
+    private fun query(
+        selection: String?,
+        selectionArgs: Array<String>?,
+        limit: Int = 0
+    ): List<GalleryImage> {
+        val images = ArrayList<GalleryImage>()
+        open(selection, selectionArgs, limit)?.use { cursor ->
+            val idColumn = cursor.getColumnIndexOrThrow(ID)
+            val dateColumn = cursor.getColumnIndexOrThrow(DATE_ADDED)
+            while ((limit == 0 || images.size < limit) && cursor.moveToNext()) {
+                images.add(GalleryImage(cursor.getLong(idColumn), cursor.getLong(dateColumn)))
+            }
+        }
+        return images
+    }
+
+    private fun open(selection: String?, selectionArgs: Array<String>?, limit: Int): Cursor? {
+        val projection = arrayOf(ID, DATE_ADDED)
+        val sortOrder = "$DATE_ADDED DESC, $ID DESC"
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            val queryArgs = Bundle().apply {
+                putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection)
+                putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs)
+                putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, sortOrder)
+                if (limit > 0) putInt(ContentResolver.QUERY_ARG_LIMIT, limit)
+            }
+            return contentResolver.query(URI, projection, queryArgs, null)
+        }
+        val order = if (limit > 0) "$sortOrder LIMIT $limit" else sortOrder
+        return contentResolver.query(URI, projection, selection, selectionArgs, order)
+    }
+
+    companion object {
+        private val URI = MediaStore.Images.Media.EXTERNAL_CONTENT_URI
+        private const val ID = MediaStore.Images.Media._ID
+        private const val DATE_ADDED = MediaStore.Images.Media.DATE_ADDED
+        private const val CHUNK_SIZE = 500
+        private const val REFRESH_DELAY_MILLIS = 500L
+    }
+}
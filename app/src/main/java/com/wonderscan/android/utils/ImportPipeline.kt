@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.utils
+
+import android.app.ActivityManager
+import android.content.Context
+import android.graphics.BitmapFactory
+import com.wonderscan.android.activity.CropActivity
+import com.wonderscan.android.dao.FrameDao
+import com.wonderscan.android.data.BoundingRect
+import com.wonderscan.android.data.Frame
+import com.wonderscan.android.data.PageFormat
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import org.opencv.core.Mat
+import org.opencv.imgcodecs.Imgcodecs
+import java.io.File
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Processes imported frames in stages: decode, detect, warp, filter, encode (together with the
+ * page's thumbnails) and update the database. Stages are connected by bounded channels and
+ * each stage runs a bounded number of workers, so no matter how many frames are imported only
+ * a few full resolution images are held in memory at any time. The number of workers is
+ * derived from the available memory and the number of cores.
+ */
+class ImportPipeline(
+    private val context: Context,
+    private val frameDao: FrameDao,
+    private val onSaved: (Frame) -> Unit = {}
+) {
+
+    private val quality = PageCodec.jpegQuality(context)
+    private val corners: MutableMap<Long, BoundingRect> = ConcurrentHashMap()
+    private val previewed: MutableSet<Long> = Collections.newSetFromMap(ConcurrentHashMap())
+
+    private class Page(val frame: Frame, val source: Mat, val needsCrop: Boolean) {
+        var cropped: Mat? = null
+        var edited: Mat? = null
+
+        fun release() {
+            source.release()
+            cropped?.release()
+            edited?.release()
+        }
+    }
+
+    suspend fun process(frames: List<Frame>) {
+        if (frames.isEmpty()) return
+        val workers = workerCount(frames)
+        previewAll(frames)
+        val decoded = Channel<Page>(workers)
+        val processed = Channel<Page>(workers)
+        coroutineScope {
+            launch(Dispatchers.IO) {
+                for (frame in frames) decode(frame)?.let { decoded.send(it) }
+                decoded.close()
+            }
+            val processors = List(workers) {
+                launch(Dispatchers.Default) {
+                    for (page in decoded) processed.send(process(page))
+                }
+            }
+            launch {
+                processors.joinAll()
+                processed.close()
+            }
+            repeat(workers) {
+                launch(Dispatchers.IO) {
+                    for (page in processed) save(page)
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a quick, low resolution version of every frame before any full resolution work
+     * starts, so the list can show the cropped and filtered pages almost immediately. The
+     * corners detected here are reused for the full resolution crop.
+     */
+    private suspend fun previewAll(frames: List<Frame>) {
+        val next = AtomicInteger()
+        coroutineScope {
+            repeat(Runtime.getRuntime().availableProcessors()) {
+                launch(Dispatchers.Default) {
+                    var i = next.getAndIncrement()
+                    while (i < frames.size) {
+                        preview(frames[i])
+                        i = next.getAndIncrement()
+                    }
+                }
+            }
+        }
+    }
+
+    private fun preview(frame: Frame) {
+        val needsCrop = frame.croppedUri == null
+        val path = if (needsCrop) frame.uri else frame.croppedUri
+        val mat = Imgcodecs.imread(path, reducedReadFlag(path))
+        if (mat.empty()) {
+            mat.release()
+            return
+        }
+        val cropped = if (needsCrop) {
+            val ratio = Utils.getDeviceWidth() / mat.width().toDouble()
+            val bRect = DocumentDetector.IMPORT.findCorners(mat, ratio)
+            bRect?.let { corners[frame.id] = it }
+            previewed.add(frame.id)
+            if (bRect != null) CropActivity.getPerspectiveTransform(mat, bRect, ratio) else mat
+        } else {
+            mat
+        }
+        val edited = filter(cropped, needsCrop)
+        val previewPath = PageCodec.createFile(context, PageFormat.JPEG).absolutePath
+        PageCodec.write(edited, previewPath, PageFormat.JPEG, PREVIEW_QUALITY)
+        val oldPreview = frame.previewUri
+        frame.previewUri = previewPath
+        frameDao.update(frame)
+        // a frame previewed again no longer needs its earlier preview
+        oldPreview?.let { File(it).delete() }
+        if (cropped !== mat) cropped.release()
+        mat.release()
+        edited.release()
+    }
+
+    /**
+     * Lets the decoder skip detail the preview does not need: JPEGs are decoded at 1/2, 1/4 or
+     * 1/8 scale directly, as long as the result stays wider than the detector's working width.
+     */
+    private fun reducedReadFlag(path: String?): Int {
+        val options = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        BitmapFactory.decodeFile(path, options)
+        val width = options.outWidth
+        val minWidth = DocumentDetector.IMPORT.workingWidth
+        return when {
+            width / 8 >= minWidth -> Imgcodecs.IMREAD_REDUCED_COLOR_8
+            width / 4 >= minWidth -> Imgcodecs.IMREAD_REDUCED_COLOR_4
+            width / 2 >= minWidth -> Imgcodecs.IMREAD_REDUCED_COLOR_2
+            else -> Imgcodecs.IMREAD_COLOR
+        }
+    }
+
+    private fun filter(mat: Mat, isNewCrop: Boolean): Mat {
+        return if (isNewCrop) Filter.auto(mat) else Filter.magicColor(mat)
+    }
+
+    private fun decode(frame: Frame): Page? {
+        val needsCrop = frame.croppedUri == null
+        val mat = Imgcodecs.imread(if (needsCrop) frame.uri else frame.croppedUri)
+        if (mat.empty()) {
+            mat.release()
+            return null
+        }
+        return Page(frame, mat, needsCrop)
+    }
+
+    private fun process(page: Page): Page {
+        val cropped = if (page.needsCrop) crop(page) else page.source
+        page.edited = filter(cropped, page.needsCrop)
+        return page
+    }
+
+    private fun crop(page: Page): Mat {
+        val frame = page.frame
+        val ratio = Utils.getDeviceWidth() / page.source.width().toDouble()
+        // corners found on the preview are in the same display scaled coordinates
+        val bRect = if (previewed.contains(frame.id)) {
+            corners[frame.id]
+        } else {
+            DocumentDetector.IMPORT.findCorners(page.source, ratio)
+        }
+        val cropped = if (bRect != null) {
+            CropActivity.getPerspectiveTransform(page.source, bRect, ratio)
+        } else {
+            page.source.clone()
+        }
+        page.cropped = cropped
+        return cropped
+    }
+
+    private fun save(page: Page) {
+        val frame = page.frame
+        try {
+            page.cropped?.let {
+                val croppedPath = PageCodec.createFile(context, PageFormat.JPEG).absolutePath
+                PageCodec.write(it, croppedPath, PageFormat.JPEG, quality)
+                frame.croppedUri = croppedPath
+            }
+            page.edited?.let {
+                val (editedPath, format) = PageCodec.write(context, it, quality)
+                frame.editedUri = editedPath
+                frame.format = format
+                frame.version++
+                Thumbnails.write(it, editedPath, frame.version)
+            }
+            // the final page replaces the preview
+            frame.previewUri?.let { File(it).delete() }
+            frame.previewUri = null
+        } finally {
+            page.release()
+        }
+        frameDao.update(frame)
+        onSaved(frame)
+    }
+
+    /**
+     * Every image in flight costs roughly [PEAK_COPIES] full resolution copies of itself while
+     * it is being filtered. Allow as many workers per stage as fit into a quarter of the
+     * memory currently available, and never more than there are cores.
+     */
+    private fun workerCount(frames: List<Frame>): Int {
+        val options = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        var maxPixels = 0L
+        for (frame in frames) {
+            BitmapFactory.decodeFile(frame.croppedUri ?: frame.uri, options)
+            maxPixels = maxOf(maxPixels, options.outWidth.toLong() * options.outHeight)
+        }
+        val memoryInfo = ActivityManager.MemoryInfo()
+        (context.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager)
+            .getMemoryInfo(memoryInfo)
+        val perImage = maxOf(maxPixels * BYTES_PER_PIXEL * PEAK_COPIES, 1L)
+        // a worker of every stage and the channels between them can each hold a page
+        val byMemory = (memoryInfo.availMem / 4 / perImage / STAGES_HOLDING_PAGES).toInt()
+        val byCores = Runtime.getRuntime().availableProcessors()
+        return byMemory.coerceIn(1, byCores)
+    }
+
+    companion object {
+        private const val BYTES_PER_PIXEL = 3
+        private const val PEAK_COPIES = 6
+        private const val STAGES_HOLDING_PAGES = 4
+        private const val PREVIEW_QUALITY = 80
+    }
+}
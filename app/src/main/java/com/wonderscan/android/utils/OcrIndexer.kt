@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.utils
+
+import android.graphics.BitmapFactory
+import androidx.room.withTransaction
+import com.google.android.gms.tasks.Tasks
+import com.google.mlkit.vision.common.InputImage
+import com.google.mlkit.vision.text.TextRecognition
+import com.google.mlkit.vision.text.latin.TextRecognizerOptions
+import com.wonderscan.android.data.Frame
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+
+/**
+ * Recognizes the text of edited pages in the background and stores it in Frame.ocr. Frames are
+ * queued by id, taken in batches and recognized a few at a time; the text of a batch is written
+ * in a single transaction. The hash of the page that was recognized is stored alongside the
+ * text, so frames whose page did not change since are skipped.
+ */
+class OcrIndexer(private val database: MyDatabase) {
+
+    private class Result(val id: Long, val text: String, val hash: String)
+
+    private val frameDao = database.frameDao()
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val queue = Channel<Long>(Channel.UNLIMITED)
+    private val queued: MutableSet<Long> = Collections.newSetFromMap(ConcurrentHashMap())
+    private val recognizer by lazy {
+        TextRecognition.getClient(TextRecognizerOptions.DEFAULT_OPTIONS)
+    }
+
+    init {
+        scope.launch { run() }
+    }
+
+    fun enqueue(ids: Collection<Long>) {
+        for (id in ids) if (queued.add(id)) queue.trySend(id)
+    }
+
+    /**
+     * Queues every edited frame that has never been recognized.
+     */
+    fun enqueuePending() {
+        scope.launch { enqueue(frameDao.getFrameIdsWithoutOcr()) }
+    }
+
+    /**
+     * Returns the frame with its text, recognizing and storing it first if the page changed.
+     */
+    suspend fun index(frameId: Long): Frame? {
+        val result = recognize(frameId)
+        if (result != null) frameDao.updateOcr(result.id, result.text, result.hash)
+        return frameDao.getFrameSync(frameId)
+    }
+
+    private suspend fun run() {
+        val batch = ArrayList<Long>(BATCH_SIZE)
+        while (true) {
+            batch.add(queue.receive())
+            while (batch.size < BATCH_SIZE) batch.add(queue.tryReceive().getOrNull() ?: break)
+            process(batch)
+            batch.clear()
+        }
+    }
+
+    private suspend fun process(ids: List<Long>) = coroutineScope {
+        val permits = Semaphore(MAX_CONCURRENCY)
+        val results = ids.map { id ->
+            async {
+                permits.withPermit {
+                    // an edit made while this frame is recognized queues it again
+                    queued.remove(id)
+                    recognize(id)
+                }
+            }
+        }.awaitAll().filterNotNull()
+        if (results.isEmpty()) return@coroutineScope
+        database.withTransaction {
+            for (result in results) frameDao.updateOcr(result.id, result.text, result.hash)
+        }
+    }
+
+    private suspend fun recognize(frameId: Long): Result? {
+        val frame = frameDao.getFrameSync(frameId) ?: return null
+        val path = frame.editedUri ?: return null
+        val hash = Utils.contentHash(path) ?: return null
+        if (hash == frame.ocrHash) return null
+
+        val options = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        BitmapFactory.decodeFile(path, options)
+        options.inSampleSize = 1
+        while (maxOf(options.outWidth, options.outHeight) / options.inSampleSize > MAX_SIZE) {
+            options.inSampleSize *= 2
+        }
+        options.inJustDecodeBounds = false
+        val bitmap = BitmapFactory.decodeFile(path, options) ?: return null
+        return try {
+            val text = Tasks.await(recognizer.process(InputImage.fromBitmap(bitmap, 0))).text
+            Result(frameId, text, hash)
+        } catch (e: ExecutionException) {
+            null
+        } finally {
+            bitmap.recycle()
+        }
+    }
+
+    companion object {
+        private const val BATCH_SIZE = 8
+        private const val MAX_CONCURRENCY = 2
+
+        // longest side of the bitmap handed to the recognizer
+        private const val MAX_SIZE = 2048
+    }
+}
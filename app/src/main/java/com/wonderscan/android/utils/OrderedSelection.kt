@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.utils
+
+/**
+ * A set of keys that remembers the order they were selected in. Looking up whether a key is
+ * selected and its ordinal is O(1); removing a key only renumbers the keys selected after it.
+ */
+class OrderedSelection<K> {
+    private val keys = ArrayList<K>()
+    private val ordinals = HashMap<K, Int>()
+
+    val size: Int
+        get() = keys.size
+
+    fun isEmpty() = keys.isEmpty()
+
+    operator fun contains(key: K) = ordinals.containsKey(key)
+
+    /**
+     * Returns the zero based position of [key] in selection order, or -1 if it isn't selected.
+     */
+    fun ordinalOf(key: K): Int = ordinals[key] ?: -1
+
+    fun add(key: K): Boolean {
+        if (ordinals.containsKey(key)) return false
+        ordinals[key] = keys.size
+        keys.add(key)
+        return true
+    }
+
+    /**
+     * Removes [key] and returns the keys whose ordinal changed because of it.
+     */
+    fun remove(key: K): List<K> {
+        val index = ordinals.remove(key) ?: return emptyList()
+        keys.removeAt(index)
+        for (i in index until keys.size) ordinals[keys[i]] = i
+        return ArrayList(keys.subList(index, keys.size))
+    }
+
+    fun clear() {
+        keys.clear()
+        ordinals.clear()
+    }
+
+    fun toList(): List<K> = ArrayList(keys)
+}
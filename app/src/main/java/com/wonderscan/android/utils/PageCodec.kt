@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.utils
+
+import android.content.Context
+import androidx.preference.PreferenceManager
+import com.wonderscan.android.R
+import com.wonderscan.android.data.PageFormat
+import org.opencv.core.Core
+import org.opencv.core.Mat
+import org.opencv.core.MatOfInt
+import org.opencv.core.Scalar
+import org.opencv.imgcodecs.Imgcodecs
+import java.io.File
+
+/**
+ * Decides how page images are stored. Color pages are stored as JPEG with the quality chosen
+ * in the settings, grayscale pages as single channel JPEG and thresholded pages as 1-bit PNG.
+ * Lossless color PNG is only used for files that already exist with that extension.
+ */
+object PageCodec {
+    const val DEFAULT_JPEG_QUALITY = 90
+    private const val PNG_COMPRESSION = 1
+
+    fun jpegQuality(context: Context): Int {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+            .getInt(context.getString(R.string.key_jpeg_quality), DEFAULT_JPEG_QUALITY)
+    }
+
+    fun formatOf(mat: Mat): PageFormat {
+        if (mat.channels() != 1) return PageFormat.JPEG
+        val mask = Mat()
+        Core.inRange(mat, Scalar(1.0), Scalar(254.0), mask)
+        val isBilevel = Core.countNonZero(mask) == 0
+        mask.release()
+        return if (isBilevel) PageFormat.BILEVEL else PageFormat.GRAY
+    }
+
+    fun createFile(context: Context, format: PageFormat): File {
+        return Utils.createPhotoFile(context, format.extension)
+    }
+
+    fun write(mat: Mat, path: String, format: PageFormat, quality: Int): Boolean {
+        val params = when (format) {
+            PageFormat.JPEG, PageFormat.GRAY -> MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, quality)
+            PageFormat.BILEVEL -> MatOfInt(Imgcodecs.IMWRITE_PNG_BILEVEL, 1)
+            PageFormat.PNG -> MatOfInt(Imgcodecs.IMWRITE_PNG_COMPRESSION, PNG_COMPRESSION)
+        }
+        val written = Imgcodecs.imwrite(path, mat, params)
+        params.release()
+        return written
+    }
+
+    /**
+     * Writes [mat] to a new file in the format that suits its content and returns the path.
+     */
+    fun write(
+        context: Context,
+        mat: Mat,
+        quality: Int = jpegQuality(context)
+    ): Pair<String, PageFormat> {
+        val format = formatOf(mat)
+        val path = createFile(context, format).absolutePath
+        write(mat, path, format, quality)
+        return Pair(path, format)
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.utils
+
+import com.wonderscan.android.data.ExportProfile
+import org.opencv.core.Mat
+import org.opencv.core.MatOfByte
+import org.opencv.core.MatOfInt
+import org.opencv.imgcodecs.Imgcodecs
+import org.opencv.imgproc.Imgproc
+import java.io.BufferedInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.io.RandomAccessFile
+import java.util.zip.DeflaterOutputStream
+
+/**
+ * An image as it is embedded in a PDF: its dictionary entries plus a way to write its
+ * already compressed data. JPEG files are embedded as they are (DCTDecode) and PNG files by
+ * copying their zlib stream (FlateDecode with PNG predictors), so pages never have to be
+ * decoded to be exported.
+ */
+class PdfImage(
+    val width: Int,
+    val height: Int,
+    val colorSpace: String,
+    val bitsPerComponent: Int,
+    val filter: String,
+    val decodeParms: String?,
+    val length: Long,
+    val writeData: (OutputStream) -> Unit
+) {
+
+    companion object {
+        private const val BUFFER_SIZE = 64 * 1024
+        private val PNG_SIGNATURE = byteArrayOf(
+            0x89.toByte(), 'P'.code.toByte(), 'N'.code.toByte(), 'G'.code.toByte(),
+            0x0D, 0x0A, 0x1A, 0x0A
+        )
+
+        /**
+         * Reads the image at [path], falling back to decoding it and re-encoding it as JPEG
+         * when the file cannot be embedded directly.
+         */
+        fun fromFile(path: String, quality: Int = PageCodec.DEFAULT_JPEG_QUALITY): PdfImage {
+            return probe(path) ?: reencode(path, quality)
+        }
+
+        /**
+         * Reads only the headers of the image at [path], returns null if it cannot be
+         * embedded without decoding it.
+         */
+        fun probe(path: String): PdfImage? {
+            val file = File(path)
+            return try {
+                fromJpeg(file) ?: fromPng(file)
+            } catch (e: IOException) {
+                null
+            }
+        }
+
+        /**
+         * Encodes [mat] for the given [colorMode]: color and gray pages as JPEG, black and
+         * white pages as 1-bit Flate data.
+         */
+        fun fromMat(mat: Mat, colorMode: ExportProfile.ColorMode, quality: Int): PdfImage {
+            if (colorMode == ExportProfile.ColorMode.COLOR) return encodeJpeg(mat, quality)
+            val gray = Mat()
+            when (mat.channels()) {
+                1 -> mat.copyTo(gray)
+                4 -> Imgproc.cvtColor(mat, gray, Imgproc.COLOR_BGRA2GRAY)
+                else -> Imgproc.cvtColor(mat, gray, Imgproc.COLOR_BGR2GRAY)
+            }
+            val image = if (colorMode == ExportProfile.ColorMode.GRAY) {
+                encodeJpeg(gray, quality)
+            } else {
+                val type = Imgproc.THRESH_BINARY or Imgproc.THRESH_OTSU
+                Imgproc.threshold(gray, gray, 0.0, 255.0, type)
+                encodeBilevel(gray)
+            }
+            gray.release()
+            return image
+        }
+
+        fun fromJpeg(file: File): PdfImage? {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                if (input.readUnsignedShort() != 0xFFD8) return null
+                while (true) {
+                    var marker = input.readUnsignedByte()
+                    if (marker != 0xFF) return null
+                    while (marker == 0xFF) marker = input.readUnsignedByte()
+                    val length = input.readUnsignedShort()
+                    val isSof = marker in 0xC0..0xCF && marker != 0xC4 && marker != 0xC8 &&
+                            marker != 0xCC
+                    if (isSof) {
+                        val precision = input.readUnsignedByte()
+                        val height = input.readUnsignedShort()
+                        val width = input.readUnsignedShort()
+                        val colorSpace = when (input.readUnsignedByte()) {
+                            1 -> "/DeviceGray"
+                            3 -> "/DeviceRGB"
+                            else -> return null
+                        }
+                        return PdfImage(
+                            width, height, colorSpace, precision, "/DCTDecode", null,
+                            file.length()
+                        ) { out -> copy(file, 0, file.length(), out) }
+                    }
+                    input.skipBytes(length - 2)
+                }
+            }
+        }
+
+        fun fromPng(file: File): PdfImage? {
+            RandomAccessFile(file, "r").use { input ->
+                val signature = ByteArray(PNG_SIGNATURE.size)
+                input.readFully(signature)
+                if (!signature.contentEquals(PNG_SIGNATURE)) return null
+                var width = 0
+                var height = 0
+                var colors = 0
+                var bitDepth = 0
+                val chunks = ArrayList<LongArray>()
+                var length = 0L
+                while (input.filePointer < input.length()) {
+                    val chunkLength = input.readInt().toLong() and 0xFFFFFFFFL
+                    val type = input.readInt()
+                    val dataStart = input.filePointer
+                    when (type) {
+                        IHDR -> {
+                            width = input.readInt()
+                            height = input.readInt()
+                            bitDepth = input.readUnsignedByte()
+                            colors = when (input.readUnsignedByte()) {
+                                0 -> 1
+                                2 -> 3
+                                else -> return null
+                            }
+                            input.readUnsignedByte()
+                            input.readUnsignedByte()
+                            if (input.readUnsignedByte() != 0) return null
+                            if (bitDepth > 8 || (colors == 3 && bitDepth != 8)) return null
+                        }
+                        IDAT -> {
+                            chunks.add(longArrayOf(dataStart, chunkLength))
+                            length += chunkLength
+                        }
+                        IEND -> break
+                    }
+                    input.seek(dataStart + chunkLength + 4)
+                }
+                if (width == 0 || chunks.isEmpty()) return null
+                return PdfImage(
+                    width,
+                    height,
+                    if (colors == 1) "/DeviceGray" else "/DeviceRGB",
+                    bitDepth,
+                    "/FlateDecode",
+                    "<< /Predictor 15 /Colors $colors /BitsPerComponent $bitDepth " +
+                            "/Columns $width >>",
+                    length
+                ) { out ->
+                    for (chunk in chunks) copy(file, chunk[0], chunk[1], out)
+                }
+            }
+        }
+
+        private fun reencode(path: String, quality: Int): PdfImage {
+            val mat = Imgcodecs.imread(path)
+            val image = encodeJpeg(mat, quality)
+            mat.release()
+            return image
+        }
+
+        private fun encodeJpeg(mat: Mat, quality: Int): PdfImage {
+            val buffer = MatOfByte()
+            val params = MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, quality)
+            Imgcodecs.imencode(".jpg", mat, buffer, params)
+            val bytes = buffer.toArray()
+            buffer.release()
+            params.release()
+            val colorSpace = if (mat.channels() == 1) "/DeviceGray" else "/DeviceRGB"
+            return PdfImage(
+                mat.width(), mat.height(), colorSpace, 8, "/DCTDecode", null,
+                bytes.size.toLong()
+            ) { out -> out.write(bytes) }
+        }
+
+        /**
+         * Packs a thresholded single channel [mat] into one bit per pixel rows and deflates
+         * them, one row at a time.
+         */
+        private fun encodeBilevel(mat: Mat): PdfImage {
+            val width = mat.cols()
+            val row = ByteArray(width)
+            val packed = ByteArray((width + 7) / 8)
+            val buffer = ByteArrayOutputStream()
+            DeflaterOutputStream(buffer).use { out ->
+                for (y in 0 until mat.rows()) {
+                    mat.get(y, 0, row)
+                    packRow(row, packed)
+                    out.write(packed)
+                }
+            }
+            val bytes = buffer.toByteArray()
+            return PdfImage(
+                width, mat.rows(), "/DeviceGray", 1, "/FlateDecode", null, bytes.size.toLong()
+            ) { out -> out.write(bytes) }
+        }
+
+        /**
+         * Packs a row of 8-bit pixels into [packed], one bit per pixel with the first pixel in
+         * the highest bit. Any non zero pixel is white.
+         */
+        internal fun packRow(row: ByteArray, packed: ByteArray) {
+            packed.fill(0)
+            for (x in row.indices) {
+                if (row[x].toInt() == 0) continue
+                val i = x shr 3
+                packed[i] = (packed[i].toInt() or (0x80 ushr (x and 7))).toByte()
+            }
+        }
+
+        fun copy(file: File, offset: Long, length: Long, out: OutputStream) {
+            RandomAccessFile(file, "r").use { input ->
+                input.seek(offset)
+                val buffer = ByteArray(BUFFER_SIZE)
+                var remaining = length
+                while (remaining > 0) {
+                    val size = minOf(buffer.size.toLong(), remaining).toInt()
+                    val read = input.read(buffer, 0, size)
+                    if (read < 0) throw IOException("Unexpected end of ${file.name}")
+                    out.write(buffer, 0, read)
+                    remaining -= read
+                }
+            }
+        }
+
+        private const val IHDR = 0x49484452
+        private const val IDAT = 0x49444154
+        private const val IEND = 0x49454E44
+    }
+}
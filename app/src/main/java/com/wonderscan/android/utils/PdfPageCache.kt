@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.utils
+
+import android.content.Context
+import com.wonderscan.android.data.ExportProfile
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+
+/**
+ * Disk cache of resampled PDF page images, keyed by the content hash of the page file and the
+ * export settings, so re-exporting a document only re-encodes the pages that changed.
+ */
+class PdfPageCache(
+    private val directory: File,
+    private val maxBytes: Long = DEFAULT_MAX_BYTES
+) {
+
+    constructor(context: Context) : this(File(context.cacheDir, DIRECTORY_NAME))
+
+    fun key(path: String, profile: ExportProfile): String? {
+        val hash = Utils.contentHash(path) ?: return null
+        return "$hash-${profile.pageSize}-${profile.dpi}-${profile.colorMode}-${profile.quality}"
+    }
+
+    fun get(key: String): PdfImage? {
+        val file = File(directory, key)
+        if (!file.exists()) return null
+        return try {
+            val image = read(file)
+            file.setLastModified(System.currentTimeMillis())
+            image
+        } catch (e: IOException) {
+            file.delete()
+            null
+        }
+    }
+
+    /**
+     * Stores [image] under [key] and returns a copy of it that reads its data from the cache
+     * file instead of memory.
+     */
+    fun put(key: String, image: PdfImage): PdfImage {
+        if (!directory.exists()) directory.mkdirs()
+        val file = File(directory, key)
+        val temp = File.createTempFile(key, ".tmp", directory)
+        try {
+            DataOutputStream(BufferedOutputStream(FileOutputStream(temp))).use { out ->
+                out.writeInt(VERSION)
+                out.writeInt(image.width)
+                out.writeInt(image.height)
+                out.writeUTF(image.colorSpace)
+                out.writeInt(image.bitsPerComponent)
+                out.writeUTF(image.filter)
+                out.writeUTF(image.decodeParms ?: "")
+                out.writeLong(image.length)
+                image.writeData(out)
+            }
+            if (!temp.renameTo(file)) return image
+            return read(file)
+        } catch (e: IOException) {
+            return image
+        } finally {
+            temp.delete()
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits in [maxBytes].
+     */
+    fun trim() {
+        val files = directory.listFiles() ?: return
+        var size = files.sumOf { it.length() }
+        for (file in files.sortedBy { it.lastModified() }) {
+            if (size <= maxBytes) break
+            size -= file.length()
+            file.delete()
+        }
+    }
+
+    private fun read(file: File): PdfImage {
+        DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+            if (input.readInt() != VERSION) throw IOException("Stale cache entry ${file.name}")
+            val width = input.readInt()
+            val height = input.readInt()
+            val colorSpace = input.readUTF()
+            val bitsPerComponent = input.readInt()
+            val filter = input.readUTF()
+            val decodeParms = input.readUTF().ifEmpty { null }
+            val length = input.readLong()
+            val offset = file.length() - length
+            return PdfImage(
+                width, height, colorSpace, bitsPerComponent, filter, decodeParms, length
+            ) { out -> PdfImage.copy(file, offset, length, out) }
+        }
+    }
+
+    companion object {
+        private const val DIRECTORY_NAME = "pdf_pages"
+        private const val DEFAULT_MAX_BYTES = 128L * 1024 * 1024
+        private const val VERSION = 1
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.utils
+
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.FilterOutputStream
+import java.io.OutputStream
+import java.util.Locale
+
+/**
+ * Minimal PDF writer that streams every page to [output] as soon as it is added. Only the
+ * byte offsets of the written objects are kept in memory, the xref table and the page tree
+ * are written when the writer is closed.
+ */
+class PdfWriter(output: OutputStream) : Closeable {
+
+    private val out = CountingOutputStream(BufferedOutputStream(output, BUFFER_SIZE))
+    private val offsets = ArrayList<Long>()
+    private val pageIds = ArrayList<Int>()
+    private val catalogId = reserve()
+    private val pagesId = reserve()
+
+    init {
+        write("%PDF-1.4\n%âãÏÓ\n")
+    }
+
+    /**
+     * Adds a page of [pageWidth] x [pageHeight] points with [image] drawn into the given
+     * rectangle.
+     */
+    fun addPage(
+        image: PdfImage,
+        pageWidth: Float,
+        pageHeight: Float,
+        x: Float = 0f,
+        y: Float = 0f,
+        width: Float = pageWidth,
+        height: Float = pageHeight
+    ) {
+        val imageId = reserve()
+        begin(imageId)
+        val dictionary = StringBuilder()
+            .append("<< /Type /XObject /Subtype /Image")
+            .append(" /Width ").append(image.width)
+            .append(" /Height ").append(image.height)
+            .append(" /ColorSpace ").append(image.colorSpace)
+            .append(" /BitsPerComponent ").append(image.bitsPerComponent)
+            .append(" /Filter ").append(image.filter)
+        if (image.decodeParms != null) dictionary.append(" /DecodeParms ").append(image.decodeParms)
+        dictionary.append(" /Length ").append(image.length).append(" >>\nstream\n")
+        write(dictionary.toString())
+        image.writeData(out)
+        write("\nendstream\nendobj\n")
+
+        val content = "q ${number(width)} 0 0 ${number(height)} ${number(x)} ${number(y)} cm " +
+                "/Im0 Do Q\n"
+        val contentId = reserve()
+        begin(contentId)
+        write("<< /Length ${content.length} >>\nstream\n$content\nendstream\nendobj\n")
+
+        val pageId = reserve()
+        begin(pageId)
+        write(
+            "<< /Type /Page /Parent $pagesId 0 R" +
+                    " /MediaBox [0 0 ${number(pageWidth)} ${number(pageHeight)}]" +
+                    " /Resources << /XObject << /Im0 $imageId 0 R >> >>" +
+                    " /Contents $contentId 0 R >>\nendobj\n"
+        )
+        pageIds.add(pageId)
+    }
+
+    override fun close() {
+        begin(pagesId)
+        write("<< /Type /Pages /Count ${pageIds.size} /Kids [")
+        for (id in pageIds) write("$id 0 R ")
+        write("] >>\nendobj\n")
+
+        begin(catalogId)
+        write("<< /Type /Catalog /Pages $pagesId 0 R >>\nendobj\n")
+
+        val xref = out.count
+        write("xref\n0 ${offsets.size + 1}\n0000000000 65535 f \n")
+        for (offset in offsets) write(String.format(Locale.US, "%010d 00000 n \n", offset))
+        write("trailer\n<< /Size ${offsets.size + 1} /Root $catalogId 0 R >>\n")
+        write("startxref\n$xref\n%%EOF\n")
+        out.close()
+    }
+
+    private fun reserve(): Int {
+        offsets.add(-1)
+        return offsets.size
+    }
+
+    private fun begin(id: Int) {
+        offsets[id - 1] = out.count
+        write("$id 0 obj\n")
+    }
+
+    private fun write(text: String) = out.write(text.toByteArray(Charsets.ISO_8859_1))
+
+    private fun number(value: Float) =
+        if (value == value.toInt().toFloat()) value.toInt().toString()
+        else String.format(Locale.US, "%.2f", value)
+
+    private class CountingOutputStream(out: OutputStream) : FilterOutputStream(out) {
+        var count = 0L
+            private set
+
+        override fun write(b: Int) {
+            out.write(b)
+            count++
+        }
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            out.write(b, off, len)
+            count += len
+        }
+    }
+
+    companion object {
+        private const val BUFFER_SIZE = 64 * 1024
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.utils
+
+import android.content.res.Resources
+import android.graphics.Bitmap
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import org.opencv.android.Utils.matToBitmap
+import org.opencv.core.Mat
+import org.opencv.core.Size
+import org.opencv.imgproc.Imgproc
+import kotlin.coroutines.coroutineContext
+
+/**
+ * Renders the edit preview off the main thread on a copy of the page scaled down to the
+ * screen. Requests are conflated and a render overtaken by a newer request is cancelled, so
+ * dragging a slider never queues up work. The full resolution page is only adjusted on save.
+ */
+class PreviewRenderer(
+    scope: CoroutineScope,
+    private val onRendered: (Bitmap) -> Unit
+) {
+    private class Request(val source: Mat, val adjustment: BrightnessAndContrastController)
+
+    private val requests = MutableStateFlow<Request?>(null)
+    private var source: Mat? = null
+    private var proxy: Mat? = null
+    private val output = Mat()
+    private val retired = ArrayList<Mat>()
+    private var isReleased = false
+
+    // the bitmap on screen is never drawn into, the next frame goes into the other one
+    private val bitmaps = arrayOfNulls<Bitmap>(2)
+    private var next = 0
+
+    private val job = scope.launch(Dispatchers.Default) {
+        requests.filterNotNull().collectLatest { render(it) }
+    }
+
+    /**
+     * Shows [source] with [adjustment] applied. [source] must not be changed afterwards; pass
+     * a new Mat instead.
+     */
+    fun render(source: Mat, adjustment: BrightnessAndContrastController) {
+        requests.value = Request(source, adjustment.copy())
+    }
+
+    /**
+     * Releases [mat], a source that has been replaced, once no render reads it any more.
+     */
+    fun retire(mat: Mat) {
+        synchronized(retired) {
+            if (isReleased) mat.release() else retired.add(mat)
+        }
+    }
+
+    /**
+     * Stops rendering and waits for a render in progress, after which the Mats passed to
+     * [render] may be released.
+     */
+    suspend fun stop() {
+        job.cancelAndJoin()
+        releaseMats()
+    }
+
+    /**
+     * Stops rendering without waiting; the Mats are released when a render in progress ends.
+     */
+    fun release() {
+        job.cancel()
+        job.invokeOnCompletion { releaseMats() }
+    }
+
+    private fun releaseMats() {
+        synchronized(retired) {
+            if (isReleased) return
+            isReleased = true
+            retired.forEach { it.release() }
+            retired.clear()
+        }
+        proxy?.release()
+        output.release()
+    }
+
+    private suspend fun render(request: Request) {
+        val proxy = proxyOf(request.source)
+        // the proxy no longer depends on earlier sources
+        synchronized(retired) {
+            val iterator = retired.iterator()
+            while (iterator.hasNext()) {
+                val mat = iterator.next()
+                if (mat === request.source) continue
+                mat.release()
+                iterator.remove()
+            }
+        }
+        coroutineContext.ensureActive()
+        val preview = if (request.adjustment.isIdentity) {
+            proxy
+        } else {
+            request.adjustment.process(proxy, output)
+            output
+        }
+        coroutineContext.ensureActive()
+        val bitmap = bitmaps[next]?.takeIf {
+            it.width == preview.width() && it.height == preview.height()
+        } ?: Bitmap.createBitmap(preview.width(), preview.height(), Bitmap.Config.ARGB_8888)
+        bitmaps[next] = bitmap
+        matToBitmap(preview, bitmap)
+        withContext(Dispatchers.Main) {
+            onRendered(bitmap)
+            next = 1 - next
+        }
+    }
+
+    private fun proxyOf(source: Mat): Mat {
+        proxy?.let { if (source === this.source) return it }
+        proxy?.release()
+        val metrics = Resources.getSystem().displayMetrics
+        val scale = minOf(
+            metrics.widthPixels / source.width().toDouble(),
+            metrics.heightPixels / source.height().toDouble(),
+            1.0
+        )
+        val proxy = Mat()
+        Imgproc.resize(source, proxy, Size(), scale, scale, Imgproc.INTER_AREA)
+        this.source = source
+        this.proxy = proxy
+        return proxy
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.utils
+
+import android.content.res.Resources
+import android.graphics.drawable.Drawable
+import com.bumptech.glide.RequestBuilder
+import com.bumptech.glide.RequestManager
+import com.bumptech.glide.signature.ObjectKey
+import org.opencv.core.Mat
+import org.opencv.core.MatOfInt
+import org.opencv.core.Size
+import org.opencv.imgcodecs.Imgcodecs
+import org.opencv.imgproc.Imgproc
+import java.io.File
+
+/**
+ * Small JPEG copies of a page stored next to it, one per place pages are shown. They are
+ * written whenever the page is and their names carry the frame's content version, so a
+ * thumbnail of an older version of the page is never picked up.
+ */
+object Thumbnails {
+    private const val QUALITY = 85
+
+    enum class Kind(private val maxSide: Int) {
+        /** the cover in the document list */
+        LIST(256),
+
+        /** a page in the two column page grid */
+        GRID(640),
+
+        /** a page filling the screen in the page viewer */
+        PAGER(0);
+
+        fun bounds(): Size {
+            if (maxSide > 0) return Size(maxSide.toDouble(), maxSide.toDouble())
+            val metrics = Resources.getSystem().displayMetrics
+            return Size(metrics.widthPixels.toDouble(), metrics.heightPixels.toDouble())
+        }
+    }
+
+    fun pathOf(pagePath: String, version: Int, kind: Kind): String {
+        val page = File(pagePath)
+        val name = "${page.name}.${kind.name.lowercase()}.$version.jpg"
+        return File(page.parentFile, name).absolutePath
+    }
+
+    /**
+     * Writes every kind of thumbnail of [mat], the content of [pagePath] at [version], and
+     * removes the ones of every other version. Each size is scaled down from the previous,
+     * larger one, so the full resolution image is only read once.
+     */
+    fun write(mat: Mat, pagePath: String, version: Int) {
+        val params = MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, QUALITY)
+        val written = HashSet<String>()
+        var source = mat
+        for (kind in Kind.values().sortedByDescending { it.bounds().area() }) {
+            val scaled = scaleDown(source, kind.bounds())
+            val path = pathOf(pagePath, version, kind)
+            Imgcodecs.imwrite(path, scaled, params)
+            written.add(path)
+            if (source !== mat && source !== scaled) source.release()
+            source = scaled
+        }
+        if (source !== mat) source.release()
+        params.release()
+        deleteExcept(pagePath, written)
+    }
+
+    /**
+     * Deletes all thumbnails of [pagePath], whatever their version. Call it whenever the page
+     * file is deleted or replaced by one with a different name.
+     */
+    fun delete(pagePath: String) {
+        deleteExcept(pagePath, emptySet())
+    }
+
+    /**
+     * Loads the [kind] thumbnail of a page and falls back to the page itself when there is
+     * none yet, for pages written before thumbnails existed. The thumbnail's path already
+     * changes with [version]; the page's does not, so it is cached under [version] too.
+     */
+    fun load(
+        glide: RequestManager,
+        pagePath: String,
+        version: Int,
+        kind: Kind
+    ): RequestBuilder<Drawable> {
+        return glide.load(pathOf(pagePath, version, kind))
+            .error(glide.load(pagePath).signature(ObjectKey(version)))
+    }
+
+    private fun deleteExcept(pagePath: String, keep: Set<String>) {
+        val page = File(pagePath)
+        val prefix = page.name + "."
+        page.parentFile?.listFiles { file ->
+            file.name.startsWith(prefix) && file.absolutePath !in keep
+        }?.forEach { it.delete() }
+    }
+
+    private fun scaleDown(mat: Mat, bounds: Size): Mat {
+        val scale = minOf(bounds.width / mat.width(), bounds.height / mat.height())
+        if (scale >= 1.0) return mat
+        val scaled = Mat()
+        Imgproc.resize(mat, scaled, Size(), scale, scale, Imgproc.INTER_AREA)
+        return scaled
+    }
+}
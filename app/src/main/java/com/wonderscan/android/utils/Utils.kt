@@ -17,22 +17,22 @@
  */
 package com.wonderscan.android.utils
 
-import android.app.Application
+import android.content.ContentResolver
 import android.content.Context
 import android.content.Intent
 import android.content.res.Resources
-import android.util.Pair
+import android.net.Uri
+import android.webkit.MimeTypeMap
 import androidx.activity.result.ActivityResultLauncher
 import com.wonderscan.android.R
-import com.wonderscan.android.activity.CropActivity
-import com.wonderscan.android.dao.FrameDao
-import com.wonderscan.android.data.BoundingRect
-import com.wonderscan.android.data.Frame
+import com.wonderscan.android.data.PageFormat
 import org.opencv.core.*
 import org.opencv.imgcodecs.Imgcodecs
 import org.opencv.imgproc.Imgproc
 import java.io.File
-import java.util.*
+import java.io.FileInputStream
+import java.io.IOException
+import java.security.MessageDigest
 
 object Utils {
 
@@ -50,13 +50,69 @@ object Utils {
         context.startActivity(intent)
     }
 
-    fun createPhotoFile(context: Context): File {
-        val filename = System.currentTimeMillis().toString() + ".png"
+    fun createPhotoFile(context: Context, extension: String = ".png"): File {
         val folder = File(context.filesDir, folderName)
         if (!folder.exists()) folder.mkdir()
-        return File(folder, filename)
+        // pages are written from several workers at once, so claim the name atomically
+        var time = System.currentTimeMillis()
+        var file: File
+        do {
+            file = File(folder, time.toString() + extension)
+            time++
+        } while (!file.createNewFile())
+        return file
     }
 
+    /**
+     * Copies an image picked by content uri into the app's storage and returns the copy's
+     * path, so it can be decoded by path later. Paths are returned as they are.
+     */
+    fun importImage(context: Context, source: String): String? {
+        if (!source.startsWith(ContentResolver.SCHEME_CONTENT)) return source
+        val uri = Uri.parse(source)
+        val extension = context.contentResolver.getType(uri)
+            ?.let { MimeTypeMap.getSingleton().getExtensionFromMimeType(it) } ?: "jpg"
+        val file = createPhotoFile(context, ".$extension")
+        return try {
+            val input = context.contentResolver.openInputStream(uri)
+                ?: throw IOException("Cannot open $uri")
+            input.use { file.outputStream().use { output -> it.copyTo(output) } }
+            file.absolutePath
+        } catch (e: IOException) {
+            file.delete()
+            null
+        }
+    }
+
+    /**
+     * Returns the SHA-1 of the file at [path] as a hex string, or null if it cannot be read.
+     */
+    fun contentHash(path: String): String? {
+        val digest = MessageDigest.getInstance("SHA-1")
+        try {
+            FileInputStream(path).use { input ->
+                val buffer = ByteArray(64 * 1024)
+                while (true) {
+                    val read = input.read(buffer)
+                    if (read < 0) break
+                    digest.update(buffer, 0, read)
+                }
+            }
+        } catch (e: IOException) {
+            return null
+        }
+        return digest.digest().joinToString("") { String.format("%02x", it) }
+    }
+
+    /**
+     * Turns what the user typed into an FTS match expression in which every word is matched as
+     * a prefix, or null if there is nothing to search for.
+     */
+    fun toFtsQuery(text: String): String? {
+        val tokens = text.split(Regex("[^\\p{L}\\p{N}]+")).filter { it.isNotEmpty() }
+        if (tokens.isEmpty()) return null
+        return tokens.joinToString(" ") { "$it*" }
+    }
 
     fun rotateMat(mat: Mat, angle: Int) {
         when (angle) {
@@ -66,10 +122,15 @@ object Utils {
         }
     }
 
-    fun saveMat(mat: Mat?, path: String?) {
+    fun saveMat(
+        mat: Mat?,
+        path: String?,
+        format: PageFormat = PageFormat.fromPath(path),
+        quality: Int = PageCodec.DEFAULT_JPEG_QUALITY
+    ) {
         if (mat?.channels() != 1)
             Imgproc.cvtColor(mat, mat, Imgproc.COLOR_BGR2RGB)
-        Imgcodecs.imwrite(path, mat)
+        if (mat != null && path != null) PageCodec.write(mat, path, format, quality)
     }
 
     fun readMat(path: String?): Mat {
@@ -90,72 +151,4 @@ object Utils {
             resultLauncher.launch(it)
         }
     }
-
-    fun cropAndFormat(frame: Frame, application: Application, frameDao: FrameDao) {
-        val originalMat = Imgcodecs.imread(frame.uri)
-        val ratio = getDeviceWidth() / originalMat.width().toDouble()
-        val bRect = findCorners(originalMat, ratio)
-        val croppedMat: Mat
-        if (bRect != null) {
-            croppedMat = CropActivity.getPerspectiveTransform(originalMat, bRect, ratio)
-        } else {
-            croppedMat = Mat()
-            originalMat.copyTo(croppedMat)
-        }
-        val croppedPath = createPhotoFile(application).absolutePath
-        Imgcodecs.imwrite(croppedPath, croppedMat)
-        val editedMat = Filter.auto(croppedMat)
-        val editedPath = createPhotoFile(application).absolutePath
-        Imgcodecs.imwrite(editedPath, editedMat)
-
-        frame.croppedUri = croppedPath
-        frame.editedUri = editedPath
-        frameDao.update(frame)
-
-        originalMat.release()
-        croppedMat.release()
-        editedMat.release()
-    }
-
-    private fun findCorners(sourceMat: Mat, ratio: Double): BoundingRect? {
-        val mat = sourceMat.clone()
-        Imgproc.cvtColor(mat, mat, Imgproc.COLOR_BGR2GRAY)
-        Imgproc.GaussianBlur(mat, mat, Size(5.0, 5.0), 0.0)
-        Imgproc.Canny(mat, mat, 75.0, 200.0)
-        val points: MutableList<MatOfPoint?> = ArrayList()
-        Imgproc.findContours(mat, points, Mat(), Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE)
-        val areas: MutableList<Pair<MatOfPoint, Double>> = ArrayList()
-        for (point in points) {
-            areas.add(Pair(point, Imgproc.contourArea(point)))
-        }
-        areas.sortWith { t1: Pair<MatOfPoint, Double>, t2: Pair<MatOfPoint, Double> ->
-            java.lang.Double.compare(
-                t2.second,
-                t1.second
-            )
-        }
-        val maxArea = (mat.width() * (mat.height() / 8f)).toDouble()
-        if (areas.size == 0 || areas[0].second < maxArea) {
-            return null
-        }
-        for (area in areas) {
-            val matOfPoint2f = MatOfPoint2f(*area.first.toArray())
-            Imgproc.approxPolyDP(
-                matOfPoint2f,
-                matOfPoint2f,
-                0.02 * Imgproc.arcLength(matOfPoint2f, true),
-                true
-            )
-            if (matOfPoint2f.height() == 4) {
-                if (area.second > maxArea) {
-                    val bRect = BoundingRect()
-                    bRect.fromPoints(matOfPoint2f.toList(), ratio, ratio)
-                    mat.release()
-                    return bRect
-                }
-            }
-        }
-        mat.release()
-        return null
-    }
-}
\ No newline at end of file
+}
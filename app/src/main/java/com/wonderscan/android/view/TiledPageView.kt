@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.view
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.BitmapRegionDecoder
+import android.graphics.Canvas
+import android.graphics.Matrix
+import android.graphics.Paint
+import android.graphics.Rect
+import android.graphics.RectF
+import android.util.AttributeSet
+import android.util.Log
+import android.util.LruCache
+import com.jsibbold.zoomage.ZoomageView
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.io.IOException
+import kotlin.coroutines.coroutineContext
+
+/**
+ * A zoomable page that shows a screen sized image as usual and, once zoomed in past that
+ * image's resolution, draws the visible part of the full resolution page on top of it. Only
+ * the tiles on screen are decoded, with [BitmapRegionDecoder] at the coarsest sample size that
+ * is still sharp at the current zoom, and decoded tiles are kept in a cache shared by all
+ * pages that is bounded by a share of the heap.
+ */
+class TiledPageView : ZoomageView {
+    constructor(context: Context) : super(context)
+    constructor(context: Context, attrs: AttributeSet?) : super(context, attrs)
+    constructor(context: Context, attrs: AttributeSet?, defStyleAttr: Int) : super(
+        context,
+        attrs,
+        defStyleAttr
+    )
+
+    private data class Tile(
+        val path: String,
+        val version: Int,
+        val sampleSize: Int,
+        val column: Int,
+        val row: Int
+    )
+
+    private var path: String? = null
+    private var version = 0
+    private var decoder: BitmapRegionDecoder? = null
+    private var canDecode = true
+    private var scope: CoroutineScope? = null
+    private var loader: Job? = null
+    private var visibleTiles: List<Tile> = emptyList()
+
+    private val paint = Paint(Paint.FILTER_BITMAP_FLAG)
+    private val toView = Matrix()
+    private val toImage = Matrix()
+    private val visible = RectF()
+    private val values = FloatArray(9)
+    private val destination = Rect()
+
+    /**
+     * Sets the full resolution image behind the one shown with setImageDrawable. Both must
+     * show the same content; [version] tells cached tiles of an older image apart. Only pass
+     * images written by the app: the region decoder ignores EXIF orientation, so tiles of a
+     * camera photo could be drawn rotated against the base image.
+     */
+    fun setSource(path: String?, version: Int) {
+        if (path == this.path && version == this.version) return
+        this.path = path
+        this.version = version
+        loader?.cancel()
+        decoder?.recycle()
+        decoder = null
+        canDecode = true
+        visibleTiles = emptyList()
+        invalidate()
+    }
+
+    override fun onAttachedToWindow() {
+        super.onAttachedToWindow()
+        scope = CoroutineScope(Dispatchers.Main + Job())
+    }
+
+    override fun onDetachedFromWindow() {
+        scope?.cancel()
+        scope = null
+        loader = null
+        decoder?.recycle()
+        decoder = null
+        super.onDetachedFromWindow()
+    }
+
+    override fun onDraw(canvas: Canvas) {
+        super.onDraw(canvas)
+        val path = path ?: return
+        val drawable = drawable ?: return
+        if (drawable.intrinsicWidth <= 0 || drawable.intrinsicHeight <= 0) return
+        imageMatrix.getValues(values)
+        if (values[Matrix.MSCALE_X] <= 1f) {
+            // the screen sized image is as sharp as the page can be drawn at this zoom
+            visibleTiles = emptyList()
+            return
+        }
+        val decoder = decoder
+        if (decoder == null) {
+            if (canDecode) loadTiles()
+            return
+        }
+        if (decoder.width <= drawable.intrinsicWidth) return
+
+        // full resolution image coordinates to view coordinates
+        toView.set(imageMatrix)
+        toView.preScale(
+            drawable.intrinsicWidth / decoder.width.toFloat(),
+            drawable.intrinsicHeight / decoder.height.toFloat()
+        )
+        toView.getValues(values)
+        val imagePixelsPerScreenPixel = 1 / values[Matrix.MSCALE_X]
+        var sampleSize = 1
+        while (sampleSize * 2 <= imagePixelsPerScreenPixel) sampleSize *= 2
+
+        if (!toView.invert(toImage)) return
+        visible.set(0f, 0f, width.toFloat(), height.toFloat())
+        toImage.mapRect(visible)
+        if (!visible.intersect(0f, 0f, decoder.width.toFloat(), decoder.height.toFloat())) return
+
+        val span = TILE_SIZE * sampleSize
+        val tiles = ArrayList<Tile>()
+        canvas.save()
+        canvas.concat(toView)
+        for (row in (visible.top / span).toInt()..((visible.bottom - 1) / span).toInt()) {
+            for (column in (visible.left / span).toInt()..((visible.right - 1) / span).toInt()) {
+                val tile = Tile(path, version, sampleSize, column, row)
+                val bitmap = cache.get(tile)
+                if (bitmap == null) {
+                    tiles.add(tile)
+                    continue
+                }
+                bounds(tile, decoder, destination)
+                canvas.drawBitmap(bitmap, null, destination, paint)
+            }
+        }
+        canvas.restore()
+        visibleTiles = tiles
+        if (tiles.isNotEmpty()) loadTiles()
+    }
+
+    /**
+     * Decodes the tiles missing from the last frame one after the other. The list is read
+     * again after every tile, so tiles that scrolled out of view in the meantime are skipped.
+     */
+    private fun loadTiles() {
+        val scope = scope ?: return
+        if (loader?.isActive == true) return
+        loader = scope.launch {
+            val decoder = decoder ?: open()
+            if (decoder == null) {
+                canDecode = false
+                return@launch
+            }
+            while (true) {
+                val tile = visibleTiles.firstOrNull { cache.get(it) == null } ?: break
+                val bitmap = withContext(Dispatchers.IO) { decode(decoder, tile) }
+                if (bitmap == null) {
+                    visibleTiles = visibleTiles - tile
+                    continue
+                }
+                cache.put(tile, bitmap)
+                invalidate()
+            }
+            // the first frame drawn with the decoder open decides which tiles are needed
+            invalidate()
+        }
+    }
+
+    /**
+     * Opens a decoder for the current path and makes it the view's decoder, unless the
+     * loader was cancelled meanwhile, in which case nothing else owns it and it is recycled.
+     */
+    private suspend fun open(): BitmapRegionDecoder? {
+        val path = path ?: return null
+        val decoder = withContext(NonCancellable + Dispatchers.IO) {
+            try {
+                @Suppress("DEPRECATION")
+                BitmapRegionDecoder.newInstance(path, false)
+            } catch (e: IOException) {
+                Log.e(TAG, Log.getStackTraceString(e))
+                null
+            }
+        } ?: return null
+        var isOwned = false
+        try {
+            coroutineContext.ensureActive()
+            this.decoder = decoder
+            isOwned = true
+            return decoder
+        } finally {
+            if (!isOwned) decoder.recycle()
+        }
+    }
+
+    private fun decode(decoder: BitmapRegionDecoder, tile: Tile): Bitmap? {
+        val region = Rect()
+        bounds(tile, decoder, region)
+        val options = BitmapFactory.Options().apply { inSampleSize = tile.sampleSize }
+        return try {
+            decoder.decodeRegion(region, options)
+        } catch (e: IllegalStateException) {
+            // the decoder was recycled while the tile was being decoded
+            null
+        }
+    }
+
+    private fun bounds(tile: Tile, decoder: BitmapRegionDecoder, rect: Rect) {
+        val span = TILE_SIZE * tile.sampleSize
+        rect.set(
+            tile.column * span,
+            tile.row * span,
+            minOf((tile.column + 1) * span, decoder.width),
+            minOf((tile.row + 1) * span, decoder.height)
+        )
+    }
+
+    companion object {
+        private val TAG = TiledPageView::class.java.simpleName
+        private const val TILE_SIZE = 512
+
+        private val cache = object : LruCache<Tile, Bitmap>(
+            (Runtime.getRuntime().maxMemory() / 8).toInt()
+        ) {
+            override fun sizeOf(key: Tile, value: Bitmap): Int = value.byteCount
+        }
+    }
+}
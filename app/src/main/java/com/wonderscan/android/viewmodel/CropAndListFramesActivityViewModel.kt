@@ -32,14 +32,21 @@ import com.wonderscan.android.R
 import com.wonderscan.android.dao.DocumentDao
 import com.wonderscan.android.dao.FrameDao
 import com.wonderscan.android.data.Document
+import com.wonderscan.android.data.ExportProfile
 import com.wonderscan.android.data.Frame
 import com.wonderscan.android.utils.ExportPdf
-import com.wonderscan.android.utils.Utils.cropAndFormat
+import com.wonderscan.android.utils.ImportPipeline
+import com.wonderscan.android.utils.PdfPageCache
+import com.wonderscan.android.utils.Thumbnails
+import com.wonderscan.android.utils.Utils
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.NonCancellable
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import java.io.IOException
 import java.text.SimpleDateFormat
 import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.collections.ArrayList
 
 
@@ -51,6 +58,7 @@ class CropAndListFramesActivityViewModel(
     var count: LiveData<Int> = MutableLiveData(0)
     var document: Document = Document()
     var frames: LiveData<MutableList<Frame>> = frameDao.getFrames(document.id)
+    val processedCount: MutableLiveData<Int> = MutableLiveData(0)
 
     private fun getName(): String {
         val simpleDateFormat =
@@ -64,21 +72,27 @@ class CropAndListFramesActivityViewModel(
         document.dateTime = System.currentTimeMillis()
         viewModelScope.launch(Dispatchers.IO) {
             documentDao.insert(document)
-            getFramesFromImagePaths(paths).let { frames ->
-                for (frame in frames) {
-                    viewModelScope.launch(Dispatchers.Default) {
-                        cropAndFormat(frame, application, frameDao)
-                    }
-                }
-            }
+            val processed = AtomicInteger()
+            ImportPipeline(application, frameDao) { frame ->
+                processedCount.postValue(processed.incrementAndGet())
+                application.ocrIndexer.enqueue(listOf(frame.id))
+            }.process(getFramesFromImagePaths(paths))
+            // pages that could not be read are never saved, count them as done too
+            processedCount.postValue(paths.size)
         }
     }
 
     fun exportPdf(uri: Uri) {
         viewModelScope.launch(Dispatchers.IO) {
-            val pdf = ExportPdf.exportPdf(frameDao.getFramesSync(document.id))
             try {
-                pdf.writeTo(application.contentResolver.openOutputStream(uri))
+                val output = application.contentResolver.openOutputStream(uri)
+                    ?: throw IOException("Cannot open $uri")
+                ExportPdf.exportPdf(
+                    frameDao.getFramesSync(document.id),
+                    output,
+                    ExportProfile.fromPreferences(application),
+                    cache = PdfPageCache(application)
+                )
                 viewModelScope.launch(Dispatchers.Main) {
                     Toast.makeText(
                         application,
@@ -98,7 +112,14 @@ class CropAndListFramesActivityViewModel(
             setMessage("Are you sure you want to delete this document. You won't be able to recover the document later!")
             setNegativeButton("Cancel", null)
             setPositiveButton("Delete") { _, _ ->
-                documentDao.delete(document)
+                viewModelScope.launch(Dispatchers.IO) {
+                    // the activity finishes right away, which must not cut the deletion short
+                    withContext(NonCancellable) {
+                        val frames = frameDao.getFramesSync(document.id)
+                        documentDao.delete(document)
+                        for (frame in frames) frame.editedUri?.let { Thumbnails.delete(it) }
+                    }
+                }
                 if (!activity.isFinishing) activity.finish()
             }
             create().show()
@@ -136,11 +157,11 @@ class CropAndListFramesActivityViewModel(
         paths: MutableList<String>,
     ): MutableList<Frame> {
         val frames = ArrayList<Frame>()
-        for (i in paths.indices) {
-            val sourcePath = paths[i]
+        for (path in paths) {
+            val sourcePath = Utils.importImage(application, path) ?: continue
             val frame = Frame(
                 timeInMillis = System.currentTimeMillis(),
-                index = i,
+                index = frames.size,
                 docId = document.id,
                 uri = sourcePath,
                 angle = 0
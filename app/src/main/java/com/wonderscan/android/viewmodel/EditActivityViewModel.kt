@@ -25,6 +25,8 @@ import androidx.lifecycle.ViewModelProvider
 import com.wonderscan.android.WonderScanApp
 import com.wonderscan.android.dao.FrameDao
 import com.wonderscan.android.data.Frame
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
 
 class EditActivityViewModel(
     application: WonderScanApp,
@@ -36,6 +38,15 @@ class EditActivityViewModel(
         frame = frameDao.getFrame(frameId)
         return frame
     }
+
+    /**
+     * Stores [frame] and queues its page for text recognition. Returns once the row is
+     * written, so the caller can finish the activity without losing the update.
+     */
+    suspend fun saveFrame(frame: Frame) = withContext(Dispatchers.IO) {
+        frameDao.update(frame)
+        getApplication<WonderScanApp>().ocrIndexer.enqueue(listOf(frame.id))
+    }
 }
 
 class EditActivityViewModelFactory(
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.viewmodel
+
+import androidx.lifecycle.LiveData
+import androidx.lifecycle.ViewModel
+import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.viewModelScope
+import androidx.paging.Pager
+import androidx.paging.PagingConfig
+import androidx.paging.PagingData
+import androidx.paging.cachedIn
+import androidx.paging.liveData
+import com.wonderscan.android.data.GalleryImage
+import com.wonderscan.android.utils.GalleryPagingSource
+import com.wonderscan.android.utils.GalleryRepository
+import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.launch
+
+class GalleryFragmentViewModel(private val repository: GalleryRepository) : ViewModel() {
+    private var pagingSource: GalleryPagingSource? = null
+
+    val images: LiveData<PagingData<GalleryImage>> =
+        Pager(PagingConfig(pageSize = PAGE_SIZE, enablePlaceholders = false)) {
+            GalleryPagingSource(repository).also { pagingSource = it }
+        }.liveData.cachedIn(viewModelScope)
+
+    init {
+        repository.start()
+        viewModelScope.launch {
+            repository.state.collect { snapshot ->
+                pagingSource?.let { if (it.generation != snapshot.generation) it.invalidate() }
+            }
+        }
+    }
+
+    companion object {
+        private const val PAGE_SIZE = 100
+    }
+}
+
+class GalleryFragmentViewModelFactory(
+    private val repository: GalleryRepository
+) : ViewModelProvider.Factory {
+    override fun <T : ViewModel?> create(modelClass: Class<T>): T {
+        @Suppress("UNCHECKED_CAST")
+        return GalleryFragmentViewModel(repository) as T
+    }
+}
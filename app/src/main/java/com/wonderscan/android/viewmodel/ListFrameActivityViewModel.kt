@@ -18,7 +18,6 @@
 
 package com.wonderscan.android.viewmodel
 
-import android.content.Context
 import android.content.Intent
 import android.net.Uri
 import android.widget.Toast
@@ -28,15 +27,18 @@ import com.wonderscan.android.WonderScanApp
 import com.wonderscan.android.dao.DocumentDao
 import com.wonderscan.android.dao.FrameDao
 import com.wonderscan.android.data.Document
+import com.wonderscan.android.data.ExportProfile
 import com.wonderscan.android.data.Frame
 import com.wonderscan.android.utils.ExportPdf
-import com.wonderscan.android.utils.Filter
-import com.wonderscan.android.utils.Utils
-import com.wonderscan.android.utils.Utils.cropAndFormat
+import com.wonderscan.android.utils.ImportPipeline
+import com.wonderscan.android.utils.PdfPageCache
+import com.wonderscan.android.utils.Thumbnails
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.NonCancellable
 import kotlinx.coroutines.launch
-import org.opencv.imgcodecs.Imgcodecs
+import kotlinx.coroutines.withContext
 import java.io.IOException
+import java.util.*
 
 
 class ListFrameActivityViewModel(
@@ -48,35 +50,22 @@ class ListFrameActivityViewModel(
     var count: LiveData<Int> = MutableLiveData(0)
     var document: LiveData<Document> = documentDao.getDocument(docId)
     var frames: LiveData<MutableList<Frame>> = frameDao.getFrames(docId)
+    private val processing: MutableSet<Long> = Collections.synchronizedSet(HashSet())
 
     fun processUnprocessedFrames(docId: String) {
         viewModelScope.launch(Dispatchers.IO) {
-            frameDao.getFramesSync(docId).let { frames ->
-                for (i in frames.indices) {
-                    if (frames[i].editedUri == null) {
-                        val frame = frames[i]
-                        viewModelScope.launch(Dispatchers.Default) {
-                            if (frame.croppedUri == null)
-                                cropAndFormat(frame, application, frameDao)
-                            else processFrame(application, frame)
-                        }
-                    }
-                }
+            val pending = frameDao.getFramesSync(docId).filter {
+                it.editedUri == null && processing.add(it.id)
+            }
+            try {
+                ImportPipeline(application, frameDao).process(pending)
+                application.ocrIndexer.enqueue(pending.map { it.id })
+            } finally {
+                for (frame in pending) processing.remove(frame.id)
             }
         }
     }
 
-    private fun processFrame(context: Context, frame: Frame) {
-        val file = Utils.createPhotoFile(context)
-        val mat = Imgcodecs.imread(frame.croppedUri)
-        val editedMat = Filter.magicColor(mat)
-        Imgcodecs.imwrite(file.absolutePath, editedMat)
-        frame.editedUri = file.absolutePath
-        frameDao.update(frame)
-        mat.release()
-        editedMat.release()
-    }
-
     fun update(frames: List<Frame>) {
         viewModelScope.launch(Dispatchers.IO) {
             for (i in frames.indices) {
@@ -87,7 +76,12 @@ class ListFrameActivityViewModel(
 
     fun delete() {
         viewModelScope.launch(Dispatchers.IO) {
-            documentDao.delete(docId)
+            // the activity finishes right away, which must not cut the deletion short
+            withContext(NonCancellable) {
+                val frames = frameDao.getFramesSync(docId)
+                documentDao.delete(docId)
+                for (frame in frames) frame.editedUri?.let { Thumbnails.delete(it) }
+            }
         }
     }
 
@@ -115,9 +109,15 @@ class ListFrameActivityViewModel(
 
     fun exportPdf(uri: Uri) {
         viewModelScope.launch(Dispatchers.IO) {
-            val pdf = ExportPdf.exportPdf(frameDao.getFramesSync(docId))
             try {
-                pdf.writeTo(application.contentResolver.openOutputStream(uri))
+                val output = application.contentResolver.openOutputStream(uri)
+                    ?: throw IOException("Cannot open $uri")
+                ExportPdf.exportPdf(
+                    frameDao.getFramesSync(docId),
+                    output,
+                    ExportProfile.fromPreferences(application),
+                    cache = PdfPageCache(application)
+                )
                 viewModelScope.launch(Dispatchers.Main) {
                     Toast.makeText(
                         application,
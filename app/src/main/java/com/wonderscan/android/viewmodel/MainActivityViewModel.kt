@@ -15,41 +15,37 @@
  * You should have received a copy of the GNU General Public License
  * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package com.wonderscan.android.viewmodel
 
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.ViewModelProvider
 import androidx.lifecycle.viewModelScope
+import androidx.paging.Pager
+import androidx.paging.PagingConfig
+import androidx.paging.PagingData
+import androidx.paging.cachedIn
+import androidx.paging.liveData
 import com.wonderscan.android.dao.DocumentDao
-import com.wonderscan.android.dao.FrameDao
-import com.wonderscan.android.data.Document
-import kotlinx.coroutines.launch
+import com.wonderscan.android.data.DocumentSummary
 
-class MainActivityViewModel(
-    private val documentDao: DocumentDao?,
-    frameDao: FrameDao?
-) : MainViewModel(frameDao) {
+class MainActivityViewModel(documentDao: DocumentDao) : ViewModel() {
     var docId: Long? = null
-    private var documents: LiveData<MutableList<Document>>? = null
+    val documents: LiveData<PagingData<DocumentSummary>> =
+        Pager(PagingConfig(pageSize = PAGE_SIZE, enablePlaceholders = false)) {
+            documentDao.getDocumentSummaries()
+        }.liveData.cachedIn(viewModelScope)
 
-    fun getAllDocuments(): LiveData<MutableList<Document>>? {
-        if (documents == null) {
-            viewModelScope.launch {
-                documents = documentDao?.getAllDocuments()
-            }
-        }
-        return documents
+    companion object {
+        private const val PAGE_SIZE = 30
     }
 }
 
 class MainActivityViewModelFactory(
-    private val documentDao: DocumentDao,
-    private val frameDao: FrameDao
+    private val documentDao: DocumentDao
 ) : ViewModelProvider.Factory {
     override fun <T : ViewModel?> create(modelClass: Class<T>): T {
         @Suppress("UNCHECKED_CAST")
-        return MainActivityViewModel(documentDao, frameDao) as T
+        return MainActivityViewModel(documentDao) as T
     }
-}
\ No newline at end of file
+}
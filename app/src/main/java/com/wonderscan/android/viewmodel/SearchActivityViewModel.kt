@@ -15,37 +15,80 @@
  * You should have received a copy of the GNU General Public License
  * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package com.wonderscan.android.viewmodel
 
+import android.util.LruCache
 import androidx.lifecycle.*
 import com.wonderscan.android.dao.DocumentDao
-import com.wonderscan.android.dao.FrameDao
-import com.wonderscan.android.data.Document
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.launch
+import com.wonderscan.android.data.SearchResult
+import com.wonderscan.android.utils.Utils
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.FlowPreview
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.flow.debounce
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.flatMapLatest
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.onEach
 
+@OptIn(FlowPreview::class, ExperimentalCoroutinesApi::class)
 class SearchActivityViewModel(
-    private val documentDao: DocumentDao,
-    frameDao: FrameDao,
-) : MainViewModel(frameDao) {
+    private val documentDao: DocumentDao
+) : ViewModel() {
+
+    private val query = MutableStateFlow<String?>(null)
+    private val recentResults = LruCache<String, List<SearchResult>>(CACHE_SIZE)
 
-    var documents: MutableLiveData<MutableList<Document>> = MutableLiveData()
+    /**
+     * Results for the latest query once typing pauses, empty until something is typed. A
+     * blank query lists every document. A query that is still running when the next one
+     * arrives is cancelled, so stale results never replace fresh ones. Any change to the
+     * documents clears the cached results and runs the current query again.
+     */
+    val documents: LiveData<List<SearchResult>> = combine(
+        query.filterNotNull()
+            .debounce(DEBOUNCE_MILLIS)
+            .map { Utils.toFtsQuery(it) }
+            .distinctUntilChanged(),
+        documentDao.observeChanges().onEach { recentResults.evictAll() }
+    ) { ftsQuery, _ -> ftsQuery }
+        .flatMapLatest { ftsQuery -> flow { emit(lookup(ftsQuery)) } }
+        .asLiveData(viewModelScope.coroutineContext)
 
     fun search(query: String) {
-        viewModelScope.launch(Dispatchers.Main) {
-            documents.postValue(documentDao.search("%$query%"))
+        this.query.value = query
+    }
+
+    private suspend fun lookup(ftsQuery: String?): List<SearchResult> {
+        val key = ftsQuery ?: ALL_DOCUMENTS
+        recentResults.get(key)?.let { return it }
+        val documents = if (ftsQuery == null) {
+            documentDao.getRecentDocumentSummaries(MAX_RESULTS).map { SearchResult(it, 0, 0, null) }
+        } else {
+            documentDao.search(ftsQuery, MAX_RESULTS)
         }
+        recentResults.put(key, documents)
+        return documents
     }
 
+    companion object {
+        private const val MAX_RESULTS = 100
+        private const val DEBOUNCE_MILLIS = 250L
+        private const val CACHE_SIZE = 16
+
+        // Utils.toFtsQuery never returns an empty match expression
+        private const val ALL_DOCUMENTS = ""
+    }
 }
 
 class SearchActivityViewModelFactory(
-    private val documentDao: DocumentDao,
-    private val frameDao: FrameDao
+    private val documentDao: DocumentDao
 ) : ViewModelProvider.Factory {
     override fun <T : ViewModel?> create(modelClass: Class<T>): T {
         @Suppress("UNCHECKED_CAST")
-        return SearchActivityViewModel(documentDao, frameDao) as T
+        return SearchActivityViewModel(documentDao) as T
     }
-}
\ No newline at end of file
+}
@@ -26,8 +26,10 @@ import com.wonderscan.android.dao.DocumentDao
 import com.wonderscan.android.dao.FrameDao
 import com.wonderscan.android.data.Document
 import com.wonderscan.android.data.Frame
+import com.wonderscan.android.utils.Thumbnails
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
+import java.io.File
 
 class ViewPageActivityViewModel(
     documentDao: DocumentDao,
@@ -45,9 +47,26 @@ class ViewPageActivityViewModel(
         }
     }
 
+    /**
+     * Drops the edited page after the frame was cropped again, so it is processed anew.
+     */
+    fun discardEdits(frame: Frame) {
+        val editedUri = frame.editedUri
+        frame.editedUri = null
+        frame.version++
+        viewModelScope.launch(Dispatchers.IO) {
+            frameDao.update(frame)
+            editedUri?.let {
+                File(it).delete()
+                Thumbnails.delete(it)
+            }
+        }
+    }
+
     fun deleteFrame(frame: Frame) {
         viewModelScope.launch(Dispatchers.IO) {
             frameDao.delete(frame)
+            frame.editedUri?.let { Thumbnails.delete(it) }
         }
     }
 }
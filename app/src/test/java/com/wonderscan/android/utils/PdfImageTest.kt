@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.utils
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+
+class PdfImageTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun file(build: DataOutputStream.() -> Unit): File {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use(build)
+        return folder.newFile().apply { writeBytes(bytes.toByteArray()) }
+    }
+
+    private fun jpeg(sof: Int, width: Int, height: Int, components: Int) = file {
+        writeShort(0xFFD8)
+        // APP0 and DHT segments come before the frame header and must be skipped
+        writeShort(0xFFE0)
+        writeShort(16)
+        write(ByteArray(14))
+        writeShort(0xFFC4)
+        writeShort(4)
+        write(ByteArray(2))
+        writeShort(sof)
+        writeShort(8 + 3 * components)
+        writeByte(8)
+        writeShort(height)
+        writeShort(width)
+        writeByte(components)
+        write(ByteArray(3 * components))
+        writeShort(0xFFD9)
+    }
+
+    private fun DataOutputStream.chunk(type: String, data: ByteArray) {
+        writeInt(data.size)
+        writeBytes(type)
+        write(data)
+        writeInt(0)
+    }
+
+    private fun png(colorType: Int, bitDepth: Int, interlace: Int, vararg idat: ByteArray) = file {
+        write(byteArrayOf(0x89.toByte(), 'P'.code.toByte(), 'N'.code.toByte(), 'G'.code.toByte()))
+        write(byteArrayOf(0x0D, 0x0A, 0x1A, 0x0A))
+        val header = ByteArrayOutputStream()
+        DataOutputStream(header).use {
+            it.writeInt(640)
+            it.writeInt(480)
+            it.writeByte(bitDepth)
+            it.writeByte(colorType)
+            it.writeByte(0)
+            it.writeByte(0)
+            it.writeByte(interlace)
+        }
+        chunk("IHDR", header.toByteArray())
+        chunk("tEXt", ByteArray(5))
+        for (data in idat) chunk("IDAT", data)
+        chunk("IEND", ByteArray(0))
+    }
+
+    @Test
+    fun readsGrayJpegHeader() {
+        val file = jpeg(0xFFC0, 1240, 1754, 1)
+        val image = PdfImage.fromJpeg(file)!!
+        assertEquals(1240, image.width)
+        assertEquals(1754, image.height)
+        assertEquals("/DeviceGray", image.colorSpace)
+        assertEquals(8, image.bitsPerComponent)
+        assertEquals("/DCTDecode", image.filter)
+        assertEquals(file.length(), image.length)
+    }
+
+    @Test
+    fun readsProgressiveColorJpegHeader() {
+        val image = PdfImage.fromJpeg(jpeg(0xFFC2, 4000, 3000, 3))!!
+        assertEquals(4000, image.width)
+        assertEquals(3000, image.height)
+        assertEquals("/DeviceRGB", image.colorSpace)
+    }
+
+    @Test
+    fun rejectsCmykJpeg() {
+        assertNull(PdfImage.fromJpeg(jpeg(0xFFC0, 10, 10, 4)))
+    }
+
+    @Test
+    fun readsRgbPngAndCopiesAllImageData() {
+        val first = byteArrayOf(1, 2, 3)
+        val second = byteArrayOf(4, 5)
+        val image = PdfImage.fromPng(png(2, 8, 0, first, second))!!
+        assertEquals(640, image.width)
+        assertEquals(480, image.height)
+        assertEquals("/DeviceRGB", image.colorSpace)
+        assertEquals(8, image.bitsPerComponent)
+        assertEquals("/FlateDecode", image.filter)
+        assertTrue(image.decodeParms!!.contains("/Colors 3"))
+        assertTrue(image.decodeParms!!.contains("/Columns 640"))
+        assertEquals(5L, image.length)
+        val data = ByteArrayOutputStream()
+        image.writeData(data)
+        assertArrayEquals(byteArrayOf(1, 2, 3, 4, 5), data.toByteArray())
+    }
+
+    @Test
+    fun readsBilevelPng() {
+        val image = PdfImage.fromPng(png(0, 1, 0, ByteArray(1)))!!
+        assertEquals("/DeviceGray", image.colorSpace)
+        assertEquals(1, image.bitsPerComponent)
+        assertTrue(image.decodeParms!!.contains("/Colors 1"))
+    }
+
+    @Test
+    fun rejectsPngsThatCannotBeCopied() {
+        assertNull(PdfImage.fromPng(png(3, 8, 0, ByteArray(1))))
+        assertNull(PdfImage.fromPng(png(2, 8, 1, ByteArray(1))))
+        assertNull(PdfImage.fromPng(png(2, 16, 0, ByteArray(1))))
+    }
+
+    @Test
+    fun probeRejectsOtherFiles() {
+        val file = folder.newFile().apply { writeText("not an image") }
+        assertNull(PdfImage.probe(file.path))
+    }
+
+    @Test
+    fun packsOneBitPerPixelFromTheHighestBit() {
+        val white = 255.toByte()
+        val row = byteArrayOf(white, 0, 0, white, 0, 0, 0, 0, white)
+        val packed = ByteArray(2) { 0x7F }
+        PdfImage.packRow(row, packed)
+        assertArrayEquals(byteArrayOf(0x90.toByte(), 0x80.toByte()), packed)
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2021 Dev Sebastian
+ * This file is part of WonderScan <https://github.com/devsebastian/WonderScan>.
+ *
+ * WonderScan is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * WonderScan is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WonderScan.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.wonderscan.android.utils
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.util.Locale
+
+class PdfWriterTest {
+
+    private fun image(data: ByteArray) = PdfImage(
+        2, 3, "/DeviceGray", 8, "/DCTDecode", null, data.size.toLong()
+    ) { out -> out.write(data) }
+
+    private fun write(pages: Int): String {
+        val output = ByteArrayOutputStream()
+        PdfWriter(output).use { writer ->
+            repeat(pages) { writer.addPage(image(ByteArray(10) { 0x55 }), 595.28f, 841.89f) }
+        }
+        return String(output.toByteArray(), Charsets.ISO_8859_1)
+    }
+
+    @Test
+    fun xrefPointsAtEveryObject() {
+        val pdf = write(2)
+        val startxref = Regex("startxref\n(\\d+)\n%%EOF\n$").find(pdf)!!
+        val xref = startxref.groupValues[1].toInt()
+        assertTrue(pdf.startsWith("xref\n", xref))
+
+        val lines = pdf.substring(xref).lines()
+        val count = lines[1].split(" ")[1].toInt()
+        // free entry, catalog and page tree, then an image, a content stream and a page each
+        assertEquals(1 + 2 + 3 * 2, count)
+        assertEquals("0000000000 65535 f ", lines[2])
+        for (id in 1 until count) {
+            val entry = lines[2 + id]
+            assertEquals(19, entry.length)
+            val offset = entry.substring(0, 10).toInt()
+            assertTrue("object $id", pdf.startsWith("$id 0 obj\n", offset))
+        }
+    }
+
+    @Test
+    fun streamLengthsMatchTheirData() {
+        val pdf = write(1)
+        val match = Regex("/Length (\\d+) >>\nstream\n").find(pdf)!!
+        val start = match.range.last + 1
+        val length = match.groupValues[1].toInt()
+        assertEquals(10, length)
+        assertTrue(pdf.startsWith("\nendstream", start + length))
+    }
+
+    @Test
+    fun pagesAreCountedInThePageTree() {
+        assertTrue(write(3).contains("<< /Type /Pages /Count 3 /Kids ["))
+    }
+
+    @Test
+    fun numbersIgnoreTheDefaultLocale() {
+        val default = Locale.getDefault()
+        Locale.setDefault(Locale.GERMANY)
+        try {
+            assertTrue(write(1).contains("/MediaBox [0 0 595.28 841.89]"))
+        } finally {
+            Locale.setDefault(default)
+        }
+    }
+}